@@ -2,8 +2,15 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.zip.Deflater;
 
+import model.AsyncOutput;
+import model.BinaryOutput;
 import model.Board;
+import model.CompressedOutput;
+import model.OutputSink;
+import model.SparseOutput;
+import model.TextOutput;
 import view.Grid;
 
 /**
@@ -24,7 +31,31 @@ class FunctionalPedCTM implements Observer {
 	/**
 	 * First parameter : name of the layout Second parameter : name of the
 	 * demand file Third parameter : boolean to decide whether to output
-	 * pictures or not.
+	 * pictures or not. Optional fourth parameter : number of threads used to
+	 * compute the time steps (default: number of available processors).
+	 * Optional fifth parameter : compiled scenario bundle, read instead of the
+	 * layout and demand files if it is up to date, (re)written otherwise.
+	 * Optional sixth parameter : format of the space time output, "text"
+	 * (default, output/spaceTime.txt and output/routes/), "text.gz" (the same
+	 * files compressed with gzip), "binary" or "binary32"
+	 * (output/spaceTime.bin with double or float values), "compressed"
+	 * (output/spaceTime.pctz, delta encoded and deflated) or "sparse" or
+	 * "sparse:[epsilon]" (output/spaceTime.sparse, only the values above
+	 * epsilon, 1e-6 by default). The output is written in a separate thread,
+	 * with every cell and time step: the output policies (selected cells or
+	 * zones, stride, window, averaging) are only available through
+	 * Board.addOutput().
+	 * Optional seventh parameter : number of time steps whose departures are
+	 * merged into one cohort (default: 1), to bound the number of groups in
+	 * the cells on long simulations.
+	 * Optional eighth parameter : number of people under which a logical
+	 * group is removed at the end of each time step (default: 0, no group is
+	 * removed), to stop simulating the residues of the diffusion. Its people
+	 * are merged into the largest group of its route in the cell or moved to
+	 * the downstream neighbor; those who cannot be moved are removed and
+	 * written by route to output/pruned.txt.
+	 * Optional ninth parameter : number of time steps the simulation can
+	 * compute ahead of the output before waiting for it (default: 16).
 	 * 
 	 * @param args
 	 */
@@ -34,14 +65,60 @@ class FunctionalPedCTM implements Observer {
 
 		board = new Board(pictures);
 
+		if (args.length > 3) {
+			board.setParallelism(Integer.parseInt(args[3]));
+		} else {
+			board.setParallelism(Runtime.getRuntime().availableProcessors());
+		}
+
+		if (args.length > 8) {
+			board.setOutputCapacity(Integer.parseInt(args[8]));
+		}
+
+		if (args.length > 5) {
+
+			OutputSink sink;
+
+			if (args[5].startsWith("sparse")) {
+				sink = new SparseOutput("output/", args[5].startsWith(
+						"sparse:") ? Double.parseDouble(args[5].substring(7))
+						: 1e-6);
+			} else if (args[5].equals("compressed")) {
+				sink = new CompressedOutput("output/", Deflater.BEST_SPEED);
+			} else if (args[5].startsWith("binary")) {
+				sink = new BinaryOutput("output/", args[5].equals("binary32"));
+			} else {
+				sink = new TextOutput("output/", args[5].equals("text.gz"));
+			}
+
+			board.setOutput(new AsyncOutput(sink, board.getOutputCapacity()));
+		}
+
+		if (args.length > 6) {
+			board.setCohortLength(Integer.parseInt(args[6]));
+		}
+
+		if (args.length > 7) {
+			board.setPruningThreshold(Double.parseDouble(args[7]));
+		}
+
 		board.addObserver(this);
 
-		board.loadLayout(new File(args[0]));
-		board.loadDemand(new File(args[1]));
+		if (args.length > 4) {
+
+			board.loadScenario(new File(args[0]), new File(args[1]), new File(
+					args[4]));
 
-		board.addMissing();
+		} else {
 
-		board.computePotentialFields();
+			board.loadLayout(new File(args[0]));
+			board.loadDemand(new File(args[1]));
+
+			board.addMissing();
+
+			board.computePotentialFields();
+
+		}
 
 		if (pictures) {
 
@@ -12,7 +12,13 @@ public class FunctionalPedCTMMain {
 	/**
 	 * First parameter : name of the layout Second parameter : name of the
 	 * demand file Third parameter : boolean to decide whether to output
-	 * pictures or not
+	 * pictures or not. Optional fourth parameter : number of threads. Optional
+	 * fifth parameter : compiled scenario bundle. Optional sixth parameter :
+	 * format of the space time output (text, text.gz, binary,
+	 * binary32, compressed, sparse or sparse:[epsilon]). Optional seventh
+	 * parameter : number of time steps merged into a departure cohort.
+	 * Optional eighth parameter : pruning threshold of the residues. Optional
+	 * ninth parameter : capacity of the output queue in time steps.
 	 * 
 	 * @param args
 	 */
@@ -23,12 +29,18 @@ public class FunctionalPedCTMMain {
 		//check Java heap space
 		//System.out.println(java.lang.Runtime.getRuntime().maxMemory()); 
 		
-		if (args.length != 3) {
+		if (args.length < 3 || args.length > 9) {
 
 			System.out
 					.println(" wrong number of arguments "
 							+ args.length
-							+ ". correct number is 3 (layout file, demand file and pictures boolean)");
+							+ ". correct number is 3 (layout file, demand file and pictures boolean)"
+							+ ", 4 (with the number of threads)"
+							+ ", 5 (with the scenario bundle)"
+							+ ", 6 (with the output format)"
+							+ ", 7 (with the cohort length)"
+							+ ", 8 (with the pruning threshold)"
+							+ " or 9 (with the output capacity)");
 		} else {
 
 			@SuppressWarnings("unused")
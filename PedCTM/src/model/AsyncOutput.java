@@ -0,0 +1,333 @@
+package model;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the space time output of another sink in a dedicated thread, so
+ * that formatting, compressing and writing a time step overlap with the
+ * computation of the next ones instead of adding to it.
+ *
+ * write() copies the state into a snapshot taken from a pool and publishes it
+ * in a queue, from which the writer thread passes it to the sink and returns
+ * it to the pool. The number of snapshots is the capacity of the pipeline:
+ * when all of them are waiting to be written, write() blocks until the
+ * writer releases one, so the simulation cannot run more than capacity steps
+ * ahead of the output (backpressure) and the memory stays bounded.
+ *
+ * The state written with writeSparse() is kept sparse and passed to the sink
+ * with writeSparse() if it is a SparseOutputSink, otherwise it is expanded
+ * in the writer thread.
+ *
+ * An error of the sink is reported by the next call to write() or close().
+ */
+public class AsyncOutput implements SparseOutputSink {
+
+	/**
+	 * state of a time step, reused once it has been written. The number of
+	 * people of the routes is either dense (routePeople) or sparse
+	 * (routeCells, routeValues, routeCounts), depending on how it was
+	 * written; the arrays are allocated at the first use.
+	 */
+	private static class Snapshot {
+
+		int timestep;
+		final double[] people;
+
+		boolean sparse;
+
+		double[][] routePeople;
+
+		int[][] routeCells;
+		double[][] routeValues;
+		final int[] routeCounts;
+
+		Snapshot(int cells, int routes) {
+
+			people = new double[cells];
+			routeCounts = new int[routes];
+
+		}
+
+		/**
+		 * fills routePeople from the sparse arrays
+		 */
+		void densify() {
+
+			if (routePeople == null) {
+				routePeople = new double[routeCounts.length][people.length];
+			}
+
+			for (int i = 0; i < routeCounts.length; i++) {
+
+				Arrays.fill(routePeople[i], 0.0);
+
+				for (int k = 0; k < routeCounts[i]; k++) {
+					routePeople[i][routeCells[i][k]] = routeValues[i][k];
+				}
+			}
+
+		}
+
+	}
+
+	// published after the last snapshot to stop the writer
+	private static final Snapshot End = new Snapshot(0, 0);
+
+	private final OutputSink sink;
+
+	private int capacity;
+
+	private BlockingQueue<Snapshot> free;
+	private BlockingQueue<Snapshot> pending;
+
+	private Thread writer;
+
+	private volatile IOException error; // first error of the sink
+
+	/**
+	 * @param sink
+	 *            - sink to which the time steps are passed
+	 * @param capacity
+	 *            - number of time steps that can wait to be written before
+	 *            the simulation is blocked (at least 1)
+	 */
+	public AsyncOutput(OutputSink sink, int capacity) {
+
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+
+		this.sink = sink;
+		this.capacity = capacity;
+
+	}
+
+	/**
+	 * sets the number of time steps that can wait to be written (at least 1),
+	 * used from the next call to open()
+	 */
+	public void setCapacity(int capacity) {
+
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+
+		this.capacity = capacity;
+
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void open(String[] cells, String[] routes, double deltaL,
+			double timeInterval, double[][] potentials) throws IOException {
+
+		sink.open(cells, routes, deltaL, timeInterval, potentials);
+
+		error = null;
+
+		free = new ArrayBlockingQueue<Snapshot>(capacity);
+		pending = new ArrayBlockingQueue<Snapshot>(capacity + 1);
+
+		for (int i = 0; i < capacity; i++) {
+			free.add(new Snapshot(cells.length, routes.length));
+		}
+
+		writer = new Thread("output writer") {
+
+			public void run() {
+				writeSnapshots();
+			}
+
+		};
+
+		writer.setDaemon(true);
+		writer.start();
+
+	}
+
+	public void write(int timestep, double[] people, double[][] routePeople)
+			throws IOException {
+
+		checkError();
+
+		Snapshot s = takeSnapshot(timestep, people);
+
+		s.sparse = false;
+
+		if (s.routePeople == null) {
+			s.routePeople = new double[s.routeCounts.length][s.people.length];
+		}
+
+		for (int i = 0; i < s.routePeople.length; i++) {
+			System.arraycopy(routePeople[i], 0, s.routePeople[i], 0,
+					s.people.length);
+		}
+
+		pending.add(s); // never full, there are at most capacity snapshots
+
+	}
+
+	public void writeSparse(int timestep, double[] people, int[][] routeCells,
+			double[][] routeValues, int[] counts) throws IOException {
+
+		checkError();
+
+		Snapshot s = takeSnapshot(timestep, people);
+
+		s.sparse = true;
+
+		if (s.routeCells == null) {
+			s.routeCells = new int[counts.length][];
+			s.routeValues = new double[counts.length][];
+		}
+
+		for (int i = 0; i < counts.length; i++) {
+
+			int n = counts[i];
+
+			if (s.routeCells[i] == null || s.routeCells[i].length < n) {
+				s.routeCells[i] = new int[Math.max(16, n + n / 2)];
+				s.routeValues[i] = new double[s.routeCells[i].length];
+			}
+
+			System.arraycopy(routeCells[i], 0, s.routeCells[i], 0, n);
+			System.arraycopy(routeValues[i], 0, s.routeValues[i], 0, n);
+
+			s.routeCounts[i] = n;
+		}
+
+		pending.add(s);
+
+	}
+
+	/**
+	 * takes a snapshot from the pool, blocking if the writer is late, and
+	 * copies the number of people in each cell
+	 */
+	private Snapshot takeSnapshot(int timestep, double[] people)
+			throws IOException {
+
+		Snapshot s;
+
+		try {
+			s = free.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("interrupted while writing step "
+					+ timestep);
+		}
+
+		s.timestep = timestep;
+
+		System.arraycopy(people, 0, s.people, 0, s.people.length);
+
+		return s;
+
+	}
+
+	/**
+	 * waits until all the published time steps are written and closes the
+	 * sink
+	 */
+	public void close() throws IOException {
+
+		if (writer == null) {
+			return;
+		}
+
+		pending.add(End);
+
+		try {
+
+			writer.join();
+
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException(
+					"interrupted while closing the output");
+		} finally {
+
+			writer = null;
+
+			sink.close();
+
+		}
+
+		checkError();
+
+	}
+
+	/**
+	 * body of the writer thread
+	 */
+	private void writeSnapshots() {
+
+		while (true) {
+
+			Snapshot s;
+
+			try {
+				s = pending.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (s == End) {
+				return;
+			}
+
+			if (error == null) {
+
+				try {
+
+					if (!s.sparse) {
+
+						sink.write(s.timestep, s.people, s.routePeople);
+
+					} else if (sink instanceof SparseOutputSink) {
+
+						((SparseOutputSink) sink).writeSparse(s.timestep,
+								s.people, s.routeCells, s.routeValues,
+								s.routeCounts);
+
+					} else {
+
+						s.densify();
+
+						sink.write(s.timestep, s.people, s.routePeople);
+
+					}
+
+				} catch (IOException e) {
+					error = e; // the following steps are discarded
+				} catch (RuntimeException e) {
+					error = new IOException(e);
+				}
+
+			}
+
+			free.add(s);
+
+		}
+
+	}
+
+	private void checkError() throws IOException {
+
+		IOException e = error;
+
+		if (e != null) {
+			throw new IOException("the output could not be written", e);
+		}
+
+	}
+
+	public OutputSink getSink() {
+		return sink;
+	}
+
+}
@@ -0,0 +1,207 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the space time output in a single binary file (spaceTime.bin), read
+ * back by BinaryOutputReader. It holds the same information as TextOutput in
+ * a fraction of the size, and any time step or cell can be read without
+ * parsing the rest of the file.
+ *
+ * The file starts with a header: magic number, format version, precision of
+ * the values (4 for float, 8 for double), length of the cells, duration of a
+ * time step, ids of the cells in the order of the values, ids of the routes
+ * and static floor field of each route in each cell. It is followed by one
+ * block per time step, which contains a row with the number of people in
+ * each cell and a row for each route with the number of people of the route
+ * in each cell. The file is only appended to, the timesteps and the position
+ * of the rows of each quantity are stored in a footer when it is closed. The
+ * last 12 bytes are the position of the footer and the magic number.
+ *
+ * The quantities are thus time x cell matrices whose rows are a step block
+ * apart. All numbers are stored in big endian order, arrays are preceded by
+ * their length and strings are stored in UTF-8.
+ */
+public class BinaryOutput implements OutputSink {
+
+	static final int Magic = 0x5043544f; // "PCTO"
+
+	static final int Version = 1;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int BufferSize = 1 << 16;
+
+	private final File file;
+
+	private final boolean singlePrecision;
+
+	private DataOutputStream out;
+
+	private long position; // number of bytes written
+
+	private long dataStart;
+
+	private int numberCells;
+
+	private String[] routes;
+
+	private int[] timesteps;
+	private int numberSteps;
+
+	/**
+	 * @param directory
+	 *            - directory in which the file is written (e.g. "output/")
+	 * @param singlePrecision
+	 *            - stores the values as float instead of double
+	 */
+	public BinaryOutput(String directory, boolean singlePrecision) {
+
+		this.file = new File(directory, "spaceTime.bin");
+		this.singlePrecision = singlePrecision;
+
+	}
+
+	public void open(String[] cells, String[] routes, double deltaL,
+			double timeInterval, double[][] potentials) throws IOException {
+
+		file.getAbsoluteFile().getParentFile().mkdirs();
+
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), BufferSize));
+
+		numberCells = cells.length;
+		this.routes = routes.clone();
+
+		timesteps = new int[256];
+		numberSteps = 0;
+
+		out.writeInt(Magic);
+		out.writeInt(Version);
+		out.writeInt(singlePrecision ? 4 : 8);
+		out.writeDouble(deltaL);
+		out.writeDouble(timeInterval);
+
+		writeStrings(cells);
+		writeStrings(routes);
+
+		for (double[] p : potentials) {
+			out.writeInt(p.length);
+			for (double v : p) {
+				out.writeDouble(v);
+			}
+		}
+
+		position = out.size();
+		dataStart = position;
+
+	}
+
+	public void write(int timestep, double[] people, double[][] routePeople)
+			throws IOException {
+
+		if (numberSteps == timesteps.length) {
+			int[] t = new int[2 * numberSteps];
+			System.arraycopy(timesteps, 0, t, 0, numberSteps);
+			timesteps = t;
+		}
+
+		timesteps[numberSteps++] = timestep;
+
+		writeRow(people);
+
+		for (double[] r : routePeople) {
+			writeRow(r);
+		}
+
+	}
+
+	public void close() throws IOException {
+
+		if (out == null) {
+			return;
+		}
+
+		try {
+
+			long footer = position;
+
+			long rowBytes = (long) numberCells * (singlePrecision ? 4 : 8);
+
+			// timesteps
+
+			out.writeInt(numberSteps);
+			for (int i = 0; i < numberSteps; i++) {
+				out.writeInt(timesteps[i]);
+			}
+
+			// quantities: name, position of the first row, distance between
+			// two rows
+
+			out.writeInt(routes.length + 1);
+
+			for (int q = 0; q <= routes.length; q++) {
+				writeString(q == 0 ? "people" : routes[q - 1]);
+				out.writeLong(dataStart + q * rowBytes);
+				out.writeLong((routes.length + 1) * rowBytes);
+			}
+
+			out.writeLong(footer);
+			out.writeInt(Magic);
+
+		} finally {
+
+			out.close();
+
+			out = null;
+
+		}
+
+	}
+
+	private void writeRow(double[] values) throws IOException {
+
+		if (singlePrecision) {
+
+			for (int c = 0; c < numberCells; c++) {
+				out.writeFloat((float) values[c]);
+			}
+
+			position += 4L * numberCells;
+
+		} else {
+
+			for (int c = 0; c < numberCells; c++) {
+				out.writeDouble(values[c]);
+			}
+
+			position += 8L * numberCells;
+
+		}
+
+	}
+
+	private void writeString(String s) throws IOException {
+
+		byte[] b = s.getBytes(UTF8);
+
+		out.writeInt(b.length);
+		out.write(b);
+
+	}
+
+	private void writeStrings(String[] a) throws IOException {
+
+		out.writeInt(a.length);
+		for (String s : a) {
+			writeString(s);
+		}
+
+	}
+
+}
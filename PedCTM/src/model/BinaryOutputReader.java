@@ -0,0 +1,287 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a space time output written by BinaryOutput through memory mapped
+ * files. The header and the footer are read when the file is opened; the
+ * values are only read when a time step (row) or a cell (column) of a
+ * quantity is requested, so that any part of a long simulation can be
+ * accessed without reading the whole file.
+ *
+ * Quantity 0 is the number of people in each cell, quantity i + 1 is the
+ * number of people of route i.
+ */
+public class BinaryOutputReader {
+
+	// size of the mapped regions of the values (a buffer is limited to 2 GB)
+	private static final long RegionSize = 1L << 30;
+
+	private final int valueSize;
+	private final double deltaL;
+	private final double timeInterval;
+
+	private final String[] cells;
+	private final String[] routes;
+	private final double[][] potentials;
+
+	private final int[] timesteps;
+
+	private final String[] quantities;
+	private final long[] quantityOffset; // in a step block
+
+	private final long stepSize; // size of a step block
+	private final int regionSteps; // number of steps in a mapped region
+
+	private final MappedByteBuffer[] regions;
+
+	/**
+	 * opens an output file
+	 *
+	 * @throws IOException
+	 *             - if the file cannot be read or is not a complete output of
+	 *             the current version
+	 */
+	public BinaryOutputReader(File f) throws IOException {
+
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+
+		try {
+
+			FileChannel channel = file.getChannel();
+
+			long size = channel.size();
+
+			if (size < 12) {
+				throw new IOException(f.getName() + " is not a space time output");
+			}
+
+			// trailer
+
+			ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY,
+					size - 12, 12);
+
+			long footer = trailer.getLong();
+
+			if (trailer.getInt() != BinaryOutput.Magic) {
+				throw new IOException(f.getName()
+						+ " is not a complete space time output");
+			}
+
+			try {
+
+				// header
+
+				ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						Math.min(size, Integer.MAX_VALUE));
+
+				if (in.getInt() != BinaryOutput.Magic) {
+					throw new IOException(f.getName()
+							+ " is not a space time output");
+				}
+
+				if (in.getInt() != BinaryOutput.Version) {
+					throw new IOException(f.getName()
+							+ " was written with another version");
+				}
+
+				valueSize = in.getInt();
+				deltaL = in.getDouble();
+				timeInterval = in.getDouble();
+
+				cells = readStrings(in);
+				routes = readStrings(in);
+
+				potentials = new double[routes.length][];
+				for (int i = 0; i < routes.length; i++) {
+					potentials[i] = new double[in.getInt()];
+					in.asDoubleBuffer().get(potentials[i]);
+					in.position(in.position() + 8 * potentials[i].length);
+				}
+
+				long dataStart = in.position();
+
+				// footer
+
+				in = channel.map(FileChannel.MapMode.READ_ONLY, footer, size
+						- 12 - footer);
+
+				timesteps = new int[in.getInt()];
+				in.asIntBuffer().get(timesteps);
+				in.position(in.position() + 4 * timesteps.length);
+
+				quantities = new String[in.getInt()];
+				quantityOffset = new long[quantities.length];
+
+				long stride = (long) cells.length * valueSize;
+
+				for (int q = 0; q < quantities.length; q++) {
+					quantities[q] = readString(in);
+					quantityOffset[q] = in.getLong() - dataStart;
+					stride = in.getLong();
+				}
+
+				stepSize = stride;
+
+				// values, in regions of whole step blocks
+
+				regionSteps = (int) Math.max(1,
+						Math.min(RegionSize / Math.max(1, stepSize),
+								Integer.MAX_VALUE));
+
+				regions = new MappedByteBuffer[(timesteps.length
+						+ regionSteps - 1)
+						/ regionSteps];
+
+				for (int r = 0; r < regions.length; r++) {
+
+					long start = dataStart + (long) r * regionSteps * stepSize;
+
+					regions[r] = channel.map(FileChannel.MapMode.READ_ONLY,
+							start, Math.min(regionSteps * stepSize, footer
+									- start));
+				}
+
+			} catch (RuntimeException e) {
+				// truncated or corrupted file
+				throw new IOException(f.getName() + " is corrupted", e);
+			}
+
+		} finally {
+			file.close(); // the mappings stay valid
+		}
+
+	}
+
+	/**
+	 * reads the values of a quantity at a time step (row)
+	 *
+	 * @param quantity
+	 *            - 0 for the number of people, i + 1 for route i
+	 * @param step
+	 *            - index of the time step in getTimesteps()
+	 * @param values
+	 *            - array of getCells().length values that receives the row
+	 */
+	public void readStep(int quantity, int step, double[] values) {
+
+		ByteBuffer region = regions[step / regionSteps];
+
+		int p = (int) ((step % regionSteps) * stepSize + quantityOffset[quantity]);
+
+		if (valueSize == 4) {
+			for (int c = 0; c < cells.length; c++, p += 4) {
+				values[c] = region.getFloat(p);
+			}
+		} else {
+			for (int c = 0; c < cells.length; c++, p += 8) {
+				values[c] = region.getDouble(p);
+			}
+		}
+
+	}
+
+	/**
+	 * reads the values of a quantity in a cell at every time step (column)
+	 *
+	 * @param quantity
+	 *            - 0 for the number of people, i + 1 for route i
+	 * @param cell
+	 *            - index of the cell in getCells()
+	 * @param values
+	 *            - array of getTimesteps().length values that receives the
+	 *            column
+	 */
+	public void readCell(int quantity, int cell, double[] values) {
+
+		long offset = quantityOffset[quantity] + (long) cell * valueSize;
+
+		for (int t = 0; t < timesteps.length; t++) {
+
+			ByteBuffer region = regions[t / regionSteps];
+
+			int p = (int) ((t % regionSteps) * stepSize + offset);
+
+			values[t] = valueSize == 4 ? region.getFloat(p) : region
+					.getDouble(p);
+		}
+
+	}
+
+	/**
+	 * returns the index of a quantity ("people" or a route id), -1 if the
+	 * file does not contain it
+	 */
+	public int getQuantity(String name) {
+
+		for (int q = 0; q < quantities.length; q++) {
+			if (quantities[q].equals(name)) {
+				return q;
+			}
+		}
+
+		return -1;
+
+	}
+
+	public String[] getQuantities() {
+		return quantities;
+	}
+
+	public String[] getCells() {
+		return cells;
+	}
+
+	public String[] getRoutes() {
+		return routes;
+	}
+
+	public double[][] getPotentials() {
+		return potentials;
+	}
+
+	public int[] getTimesteps() {
+		return timesteps;
+	}
+
+	public double getDeltaL() {
+		return deltaL;
+	}
+
+	public double getTimeInterval() {
+		return timeInterval;
+	}
+
+	/**
+	 * returns true if the values are stored as float
+	 */
+	public boolean isSinglePrecision() {
+		return valueSize == 4;
+	}
+
+	private static String readString(ByteBuffer in) {
+
+		byte[] b = new byte[in.getInt()];
+		in.get(b);
+
+		return new String(b, BinaryOutput.UTF8);
+
+	}
+
+	private static String[] readStrings(ByteBuffer in) {
+
+		String[] a = new String[in.getInt()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = readString(in);
+		}
+
+		return a;
+
+	}
+
+}
@@ -3,20 +3,19 @@ package model;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
-import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.Observable;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Represents the board of the calibration
@@ -27,19 +26,6 @@ import java.util.TreeSet;
 
 public class Board extends Observable {
 
-	// maximum number of lines and maximum line length in the layout file
-
-	private static final int LimitLinesNumber = 20000;
-	private static final int LimitLineLength = 1000;
-
-	/*
-	 * Length of the sleep in milliseconds must be at least 1 to avoid
-	 * concurrency errors (used in the visualization).
-	 */
-
-	private static final long SleepLength = 1;
-
-	
 	/*
 	 * Maximum number of simulation time steps
 	 */
@@ -53,17 +39,139 @@ public class Board extends Observable {
 
 	private static final double endingSum = 0.01;
 
+	/*
+	 * Number of cells under which a loop over the cells is not split into
+	 * parallel tasks anymore
+	 */
+
+	private static final int ChunkSize = 1024;
+
+	/*
+	 * Number of time steps after which the number of people in the simulation,
+	 * which is updated at the sources and sinks, is recounted over the cells
+	 */
+
+	private static final int RecountInterval = 100;
+
+	/*
+	 * Share of the people of a route that the pruning can remove before a
+	 * warning is printed at the end of the simulation
+	 */
+
+	private static final double PrunedTolerance = 1e-3;
+
+	/*
+	 * Default number of time steps the simulation can compute ahead of the
+	 * space time output before waiting for it to be written (see AsyncOutput
+	 * and setOutputCapacity())
+	 */
+
+	public static final int OutputCapacity = 16;
+
 	/* decides if the software is going to output pictures or only text files */
 
 	private boolean visualized;
 
-	private Hashtable<String, Cell> cells;
+	private Network network;
+
+	private String[] sensorIds;
 
-	private Hashtable<String, Hashtable<String, Sensor>> sensors;
+	private Sensor[] sensors; // log book of each cell, null if the cell is
+								// not a sensor
+
+	private double population; // number of people in the simulation, updated
+								// by fillSources() and emptySinks()
+
+	private int[] sortedCells; // cell indices ordered by cell id, computed at
+								// the first use
 
 	private PhysicalGroup[] groups;
-	private String[] sources;
-	private String[] sinks;
+	private int[] sources;
+	private int[] sinks;
+
+	private RouteGraph[] fields; // subgraph and static floor field shared by
+									// the routes with the same sink and zones
+	private int[] routeField; // field of each route
+
+	private ThreadLocal<TurningCache> turningCaches; // scratch space of the
+														// projection
+
+	private ForkJoinPool pool; // null if the steps are computed sequentially
+
+	// cells containing people, in increasing order, and active cells (cells
+	// containing people and their neighbors), in increasing order. Only the
+	// active cells can send or receive people, so the steps only process
+	// them. Both are updated at the end of each step from the previous
+	// active cells and the sources.
+
+	private int[] occupiedCells;
+	private int numberOccupied;
+	private int[] activeCells;
+	private int numberActive;
+	private boolean[] marked; // scratch space, all false between two uses
+	private boolean activeValid; // false if the cells have to be scanned
+
+	private final CellLoop speedLoop = new CellLoop() {
+
+		protected void run(int from, int to) {
+
+			for (int i = from; i < to; i++) {
+				int c = activeCells[i];
+				network.speedWeight[c] = Math.exp(beta
+						* network.computeSpeed(c));
+			}
+
+		}
+	};
+
+	private final CellLoop projectionLoop = new CellLoop() {
+
+		protected void run(int from, int to) {
+
+			TurningCache cache = turningCaches.get();
+
+			for (int i = from; i < to; i++) {
+				projectCell(activeCells[i], cache);
+			}
+
+		}
+	};
+
+	private final CellLoop receivingLoop = new CellLoop() {
+
+		protected void run(int from, int to) {
+
+			for (int i = from; i < to; i++) {
+				int c = activeCells[i];
+				receiveCell(c);
+			}
+
+		}
+	};
+
+	private final CellLoop inflowLoop = new CellLoop() {
+
+		protected void run(int from, int to) {
+
+			for (int i = from; i < to; i++) {
+				int c = activeCells[i];
+				receivePeople(c);
+			}
+
+		}
+	};
+
+	private final CellLoop outflowLoop = new CellLoop() {
+
+		protected void run(int from, int to) {
+
+			for (int i = from; i < to; i++) {
+				int c = activeCells[i];
+				sendPeople(c);
+			}
+
+		}
+	};
 	private float[] bounds;
 
 	private int timestep;
@@ -72,16 +180,27 @@ public class Board extends Observable {
 	private int numberCells;
 	private int numberGroups;
 
-	private boolean go;
-	private boolean end;
+	private volatile boolean go; // modified by the interface thread
+	private volatile boolean end;
+
+	private volatile Pacing pacing; // decides how fast the time steps are
+										// computed (set by the interface)
 
 	private Hashtable<String, PhysicalGroup> demand;
 
 	private Hashtable<String, Hashtable<Integer, Hashtable<Double, Double>>> data;
 
-	private ArrayList<String> textOutput;
+	private ArrayList<FilteredOutput> outputs; // space time outputs
+	private boolean outputOpened;
 
-	private Hashtable<String, ArrayList<String>> routeTextOutput;
+	private int outputCapacity; // capacity of the outputs written in a
+								// separate thread
+
+	private int[][] routeCells; // cells where each route is present, computed
+								// for the outputs
+	private double[][] routeValues; // number of people of the route in these
+									// cells
+	private int[] routeCounts; // number of cells where each route is present
 
 	private String filenameLayout;
 
@@ -97,6 +216,26 @@ public class Board extends Observable {
 
 	private double deltaL; // length of cells A= deltaL*deltaL
 
+	private int cohortLength; // number of time steps whose departures are
+								// merged into one logical group
+
+	private double pruningThreshold; // groups with fewer people are merged
+										// at the end of each step, 0 to keep
+										// all the groups
+	private double[] prunedMass; // number of people removed from each route
+									// by the pruning
+
+	// scratch space of the pruning: largest group of each route in the
+	// current cell (valid if largestStamp is the stamp of the cell), and
+	// cells that received people from their neighbors
+
+	private long[] largestKey;
+	private double[] largestPeople;
+	private int[] largestStamp;
+	private int pruneStamp;
+	private int[] pruneTargets;
+	private int numberTargets;
+
 	/**
 	 * constructor of the board
 	 */
@@ -107,15 +246,23 @@ public class Board extends Observable {
 
 		this.timestep = 0;
 		this.startingTime = 0;
+		this.cohortLength = 1;
+		this.pruningThreshold = 0.0;
 		this.go = false;
 		this.end = false;
 
+		this.pacing = new UnthrottledPacing();
+
+		this.outputCapacity = OutputCapacity;
+		this.outputs = new ArrayList<FilteredOutput>();
+		this.outputs.add(new FilteredOutput(new AsyncOutput(new TextOutput(
+				"output/"), outputCapacity), new OutputPolicy()));
+		this.outputOpened = false;
+
 		this.demand = new Hashtable<String, PhysicalGroup>();
 
 		this.data = new Hashtable<String, Hashtable<Integer, Hashtable<Double, Double>>>();
 
-		sensors = new Hashtable<String, Hashtable<String, Sensor>>();
-
 	}
 
 	/**
@@ -128,164 +275,161 @@ public class Board extends Observable {
 
 	public boolean loadLayout(File f) {
 
-		String[] lines = new String[LimitLinesNumber];
+		this.filenameLayout = f.getAbsolutePath();
 
-		BufferedReader br = null;
-
-		try {
+		boolean valid = true;
 
-			this.filenameLayout = f.getAbsolutePath();
+		float[] coordinates = new float[8];
 
-			String currentLine;
+		LineTokenizer in = null;
 
-			br = new BufferedReader(new FileReader(f));
+		try {
 
-			int i = 0;
+			in = new LineTokenizer(new BufferedReader(new FileReader(f)));
 
-			while ((currentLine = br.readLine()) != null) {
+			// Simulation loading part
 
-				lines[i] = currentLine;
-				i++;
-			}
+			in.expectLine("#Simulation");
+			in.requireLine();
 
-		} catch (IOException e) {
+			numberCells = in.nextInt();
+			deltaL = in.nextDouble();
+			alpha = in.nextDouble();
+			beta = in.nextDouble();
 
-			return false;
+			sensorIds = in.remainingTokens();
 
-		} finally {
+			network = new Network(numberCells);
 
-			try {
+			population = 0.0;
+			sortedCells = null;
+			activeValid = false;
 
-				if (br != null) {
-					br.close();
-				}
+			this.timestep = 0;
 
-			} catch (IOException ex) {
+			bounds = new float[4];
+			bounds[0] = Float.MAX_VALUE;
+			bounds[1] = Float.MAX_VALUE;
+			bounds[2] = 0;
+			bounds[3] = 0;
 
-				return false;
-			}
-		}
+			// Cell loading part
 
-		String[] line = new String[LimitLineLength];
+			in.expectLine("#Cells");
 
-		int index = 0;
+			for (int c = 0; c < numberCells; c++) {
 
-		String cid;
-		String zone;
-		double shape;
-		double area;
-		double delta;
-		double kc;
+				in.requireLine();
 
-		String[] neighbors;
-		float[] coordinates = new float[8];
+				String cid = in.nextToken();
+				String zone = in.nextToken();
+				double shape = in.nextDouble();
+				double area = in.nextDouble();
+				double kc = in.nextDouble();
+				double delta = in.nextDouble();
 
-		boolean valid = true;
+				in.requireLine();
 
-		try {
+				// find the bounds of the simulation to correctly draw the
+				// output
 
-			while (!lines[index].equals("#End") && valid) {
+				for (int i = 0; i < 8; i++) {
+					coordinates[i] = in.nextFloat();
+					if (i % 2 == 0) {
+						if (coordinates[i] < bounds[0]) {
+							bounds[0] = coordinates[i];
+						}
+						if (coordinates[i] > bounds[2]) {
+							bounds[2] = coordinates[i];
+						}
+					} else {
+						if (coordinates[i] < bounds[1]) {
+							bounds[1] = coordinates[i];
+						}
+						if (coordinates[i] > bounds[3]) {
+							bounds[3] = coordinates[i];
+						}
+					}
+				}
 
-				if (index == 0) {
+				in.requireLine();
 
-					// Simulation loading part
+				String[] neighbors = in.remainingTokens();
 
-					if (lines[0].equals("#Simulation")
-							&& lines[2].equals("#Cells")) {
+				if (network.indexOf(cid) >= 0) {
+					throw in.error("cell " + cid + " is defined twice");
+				}
 
-						line = lines[index + 1].split(" ");
+				network.addCell(cid, zone, shape, area, kc, delta,
+						coordinates, neighbors);
 
-						numberCells = Integer.parseInt(line[0]);
-						deltaL = Double.parseDouble(line[1]);
-						alpha = Double.parseDouble(line[2]);
-						beta = Double.parseDouble(line[3]);
+			}
 
-						if (line.length > 4) {
+			in.expectLine("#End");
 
-							for (int i = 4; i < line.length; i++) {
-								sensors.put(line[i],
-										new Hashtable<String, Sensor>());
-							}
-						}
+		} catch (ParseException e) {
 
-						cells = new Hashtable<String, Cell>();
+			System.out.println("Error: " + f.getName() + ", line "
+					+ e.getErrorOffset() + ": " + e.getMessage());
+			valid = false;
 
-						this.timestep = 0;
+		} catch (IOException e) {
 
-						this.textOutput = new ArrayList<String>();
-						this.routeTextOutput = new Hashtable<String, ArrayList<String>>();
+			e.printStackTrace();
+			valid = false;
 
-						bounds = new float[4];
-						bounds[0] = Float.MAX_VALUE;
-						bounds[1] = Float.MAX_VALUE;
-						bounds[2] = 0;
-						bounds[3] = 0;
+		} finally {
 
-						index += 3;
+			try {
 
-					} else {
-						valid = false;
-					}
+				if (in != null) {
+					in.close();
+				}
 
-					// Cell loading part
+			} catch (IOException ex) {
 
-				} else if (index > 2 && index < numberCells * 3 + 2) {
+				valid = false;
+			}
+		}
 
-					line = lines[index].split(" ");
+		if (valid) {
 
-					cid = line[0];
-					zone = line[1];
-					shape = Double.parseDouble(line[2]);
-					area = Double.parseDouble(line[3]);
-					kc = Double.parseDouble(line[4]);
-					delta = Double.parseDouble(line[5]);
-					line = lines[index + 1].split(" ");
+			valid = network.compile();
 
-					// find the bounds of the simulation to correctly draw the
-					// output
+		}
 
-					for (int i = 0; i < 8; i++) {
-						coordinates[i] = Float.parseFloat(line[i]);
-						if (i % 2 == 0) {
-							if (coordinates[i] < bounds[0]) {
-								bounds[0] = coordinates[i];
-							}
-							if (coordinates[i] > bounds[2]) {
-								bounds[2] = coordinates[i];
-							}
-						} else {
-							if (coordinates[i] < bounds[1]) {
-								bounds[1] = coordinates[i];
-							}
-							if (coordinates[i] > bounds[3]) {
-								bounds[3] = coordinates[i];
-							}
-						}
-					}
+		if (valid) {
 
-					line = lines[index + 2].split(" ");
-					neighbors = line;
+			valid = resolveSensors();
 
-					cells.put(cid, new Cell(cid, zone, shape, area, kc, delta,
-							coordinates, neighbors));
+		}
 
-					index += 3;
+		return valid;
+	}
 
-				} else if (index == numberCells * 3 + 3) {
+	/**
+	 * creates the log book of the cells of the layout that are sensors
+	 * 
+	 * @return false if a sensor is not a cell of the layout
+	 */
 
-					if (!lines[index].equals("#End")) {
-						valid = false;
-					}
+	private boolean resolveSensors() {
 
-				}
+		boolean valid = true;
 
-			}
+		sensors = new Sensor[numberCells];
 
-		} catch (Exception e) {
+		for (String sid : sensorIds) {
 
-			e.printStackTrace();
-			valid = false;
+			int c = network.indexOf(sid);
 
+			if (c < 0) {
+				System.out.println("Error: sensor " + sid
+						+ " is not a cell of the layout.");
+				valid = false;
+			} else if (sensors[c] == null) {
+				sensors[c] = new Sensor(sid);
+			}
 		}
 
 		return valid;
@@ -299,120 +443,90 @@ public class Board extends Observable {
 
 		boolean valid = true;
 
-		BufferedReader CSVFile;
+		this.filenameDemand = f.getAbsolutePath();
 
-		LinkedList<String[]> list = new LinkedList<String[]>();
+		LineTokenizer in = null;
 
 		try {
 
-			this.filenameDemand = f.getAbsolutePath();
-
-			CSVFile = new BufferedReader(new FileReader(filenameDemand));
-
-			String row = CSVFile.readLine();
-
-			while (row != null) {
-
-				String[] data = row.split(",");
-				list.add(data);
+			in = new LineTokenizer(new BufferedReader(new FileReader(f)), ',');
 
-				row = CSVFile.readLine();
+			// each row: departure interval, route, (unused), number of people
 
-			}
+			while (in.nextLine()) {
 
-			CSVFile.close();
+				if (in.getLine().trim().isEmpty()) {
+					continue;
+				}
 
-			String id = "";
-			String source = "";
-			String sink = "";
+				int departuretime = in.nextInt();
+				String id = in.nextToken();
+				in.nextToken();
+				double weight = in.nextDouble();
 
-			double weight = 0;
-			int departuretime = 0;
+				if (departuretime < 0) {
+					throw in.error("negative departure interval "
+							+ departuretime);
+				}
 
-			String z1 = "";
-			String z2 = "";
+				if (departuretime > startingTime) {
 
-			int nRoutes = 0;
+					startingTime = departuretime;
 
-			Set<String> routes = new TreeSet<String>();
+				}
 
-			for (String[] el : list) {
+				PhysicalGroup g = demand.get(id);
 
-				id = el[1];
+				if (g == null) {
 
-				String[] s = el[1].split("-");
+					// the source and the sink are the last cells of the first
+					// and last zones of the route
 
-				z1 = el[1].split("-")[0];
-				z2 = s[s.length - 1];
+					String[] route = id.split("-");
 
-				weight = Double.valueOf(el[3]);
-				departuretime = Integer.valueOf(el[0]);
+					int source = network.lastCellOf(route[0]);
+					int sink = network.lastCellOf(route[route.length - 1]);
 
-				if (!routes.contains(el[1])) {
+					if (source < 0 || sink < 0) {
+						throw in.error("the first or last zone of route " + id
+								+ " is not in the layout");
+					}
 
-					routes.add(el[1]);
-					nRoutes++;
+					g = new PhysicalGroup(id, network.cid[source],
+							network.cid[sink], route);
+					demand.put(id, g);
 
 				}
 
-				for (String cid : cells.keySet()) {
+				g.addDeparture(departuretime, weight);
 
-					Cell c = cells.get(cid);
-
-					if (c.getZone().equals(z1)) {
+			}
 
-						source = c.getCid();
+			this.numberGroups = demand.size();
 
-					}
+		} catch (ParseException e) {
 
-					if (c.getZone().equals(z2)) {
+			System.out.println("Error: " + f.getName() + ", line "
+					+ e.getErrorOffset() + ": " + e.getMessage());
+			valid = false;
 
-						sink = c.getCid();
+		} catch (IOException e) {
 
-					}
-				}
+			e.printStackTrace();
+			valid = false;
 
-				if (departuretime > startingTime) {
+		} finally {
 
-					startingTime = departuretime;
+			try {
 
+				if (in != null) {
+					in.close();
 				}
 
-				if (demand.containsKey(id)) {
-
-					PhysicalGroup g = demand.get(id);
-					double[] tmp;
-
-					if (departuretime > g.getStartRepartition().length - 1) {
-						tmp = new double[departuretime + 1];
-						System.arraycopy(g.getStartRepartition(), 0, tmp, 0,
-								g.getStartRepartition().length);
-					} else {
-						tmp = g.getStartRepartition();
-					}
-
-					tmp[departuretime] = weight;
-					g.setStartRepartition(tmp);
-					demand.put(id, g);
-
-				} else {
-
-					double[] startrepartition = new double[departuretime + 1];
-					startrepartition[departuretime] = weight;
-					PhysicalGroup g = new PhysicalGroup(id, source, sink,
-							id.split("-"), startrepartition);
-					demand.put(id, g);
-				}
+			} catch (IOException ex) {
 
+				valid = false;
 			}
-
-			this.numberGroups = nRoutes;
-
-		} catch (Exception e) {
-
-			e.printStackTrace();
-			valid = false;
-
 		}
 
 		return valid;
@@ -424,107 +538,131 @@ public class Board extends Observable {
 
 	public void computePotentialFields() {
 
-		for (int i = 0; i < groups.length; i++) {
+		// routes with the same sink and the same set of zones share their
+		// field
 
-			String route = groups[i].getRoute();
-			String[] routeArray = groups[i].getRouteArray();
-			Set<String> routeSet = new TreeSet<String>();
+		HashMap<String, Integer> fieldIndices = new HashMap<String, Integer>();
+		ArrayList<boolean[]> fieldZones = new ArrayList<boolean[]>();
+		ArrayList<Integer> fieldSinks = new ArrayList<Integer>();
 
-			for (int j = 0; j < routeArray.length; j++) {
-				routeSet.add(routeArray[j]);
-			}
+		routeField = new int[groups.length];
+
+		for (int i = 0; i < groups.length; i++) {
 
-			Cell sink = cells.get(groups[i].getSink());
+			boolean[] inRoute = new boolean[network.getNumberZones()];
 
-			LinkedList<String> next = new LinkedList<String>();
+			for (String z : groups[i].getRouteArray()) {
 
-			LinkedList<String> nei = new LinkedList<String>();
+				int zi = network.zoneIndexOf(z);
 
-			for (String s : sink.getNeighbors()) {
+				if (zi >= 0) {
+					inRoute[zi] = true;
+				}
+			}
 
-				Cell c = cells.get(s);
+			String key = sinks[i] + ":" + Arrays.toString(inRoute);
 
-				if (routeSet.contains(c.getZone())) {
+			Integer f = fieldIndices.get(key);
 
-					next.add(s);
-				}
+			if (f == null) {
+				f = fieldZones.size();
+				fieldIndices.put(key, f);
+				fieldZones.add(inRoute);
+				fieldSinks.add(sinks[i]);
 			}
 
-			sink.setF(1); // sink has a potential of 1 by definition of the
-							// algorithm
+			routeField[i] = f;
+		}
 
-			cells.put(groups[i].getSink(), sink);
+		final boolean[][] zones = fieldZones.toArray(new boolean[0][]);
+		final Integer[] sinkCells = fieldSinks.toArray(new Integer[0]);
 
-			int k = 2;
+		fields = new RouteGraph[zones.length];
 
-			while (!next.isEmpty()) {
+		// the fields are independent and computed in parallel
 
-				for (String cell : next) {
+		new CellLoop() {
 
-					Cell current = cells.get(cell);
+			protected void run(int from, int to) {
 
-					if (routeSet.contains(current.getZone())) {
+				for (int f = from; f < to; f++) {
+					fields[f] = computePotentialField(sinkCells[f], zones[f]);
+				}
 
-						if (current.getF() == 0.0) {
+			}
 
-							current.setF(k);
+		}.execute(pool, fields.length, 1);
 
-							cells.put(cell, current);
+		allocateTurningCaches();
+	}
 
-							for (String el : current.getNeighbors()) {
+	/**
+	 * allocates the scratch space of the projection once the fields are known
+	 */
 
-								Cell n = cells.get(el);
+	private void allocateTurningCaches() {
 
-								if (routeSet.contains(n.getZone())
-										&& n.getF() == 0.0 && !nei.contains(el)) {
+		final int numberFields = fields.length;
+		final int maxDegree = network.maxDegree;
 
-									nei.add(el);
+		turningCaches = new ThreadLocal<TurningCache>() {
 
-								}
-							}
-						}
+			protected TurningCache initialValue() {
+				return new TurningCache(numberFields, maxDegree);
+			}
 
-					} else {
-						current.setF(-1); /*
-										 * if the cell is not in the route, set
-										 * its potential to -1
-										 */
-					}
+		};
+	}
 
-				}
+	/**
+	 * computes the static floor field towards a sink by a breadth first
+	 * search restricted to the cells of the zones of the route. The sink has
+	 * a potential of 1, and each step away from it adds 1. Cells that are not
+	 * reached have a potential of 0.
+	 */
 
-				next.clear();
+	private RouteGraph computePotentialField(int sink, boolean[] inRoute) {
 
-				next.addAll(nei);
+		int[] start = network.neighborStart;
+		int[] adj = network.neighbors;
+		int[] zone = network.zoneIndex;
 
-				nei.clear();
+		double[] F = new double[numberCells];
 
-				k++;
-			}
+		int[] queue = new int[numberCells];
+		BitSet visited = new BitSet(numberCells);
 
-			// reset fields and compute final static potential
+		int head = 0;
+		int tail = 0;
 
-			for (String cell : cells.keySet()) {
+		F[sink] = 1; // sink has a potential of 1 by definition of the
+						// algorithm
+		visited.set(sink);
+		queue[tail++] = sink;
 
-				Cell c = cells.get(cell);
-				double potential = c.getF();
+		while (head < tail) {
 
-				c.setD(potential);
-				c.setF(0.0);
-				cells.put(cell, c);
+			int current = queue[head++];
 
-			}
+			for (int e = start[current]; e < start[current + 1]; e++) {
 
-			for (String cell : cells.keySet()) {
+				int n = adj[e];
 
-				Cell c = cells.get(cell);
-				c.addSFF(route, c.getD());
-				cells.put(cell, c);
-				c.setD(0.0);
+				if (inRoute[zone[n]] && !visited.get(n)) {
 
-			}
+					visited.set(n);
+					F[n] = F[current] + 1;
+					queue[tail++] = n;
 
+				}
+			}
 		}
+
+		RouteGraph graph = new RouteGraph(network, F);
+		graph.computeWeights(network, alpha);
+
+		return graph;
+
 	}
 
 	/**
@@ -556,16 +694,7 @@ public class Board extends Observable {
 				//", dt = " + (System.currentTimeMillis() - a) + "ms ");
 			}
 
-			try {
-
-				Thread.sleep(SleepLength); /*
-											 * slows down the simulation to be
-											 * able to visualize it
-											 */
-
-			} catch (InterruptedException e) {
-				// if the simulation is interrupted by the user, do nothing
-			}
+			pacing.pace(timestep); // slows down the simulation if needed
 
 		}
 	}
@@ -578,481 +707,804 @@ public class Board extends Observable {
 
 		emptySinks();
 
-		LinkedList<String> list = projection();
-		// Precomputes the receiving capacities to avoid a clearing problem
-
-		Cell c = new Cell();
-		for (String cid : list) {
-
-			c = cells.get(cid);
-
-			//System.out.print("cell id: " + cid + " ");
-			
-			c.computeReceivingCapacity();
-			cells.put(cid, c);
-
-		}
+		projection();
 
-		updateCells(list);
+		updateCells();
 
 	}
 
 	/**
 	 * projects the numbers of people of each group in the cells
-	 * 
-	 * @return the list of the movements to be considered in the actual movement
 	 */
 
-	public LinkedList<String> projection() {
+	public void projection() {
 
-		LinkedList<String> list = new LinkedList<String>();
+		if (!activeValid) {
+			computeActiveCells();
+		}
 
-		LinkedList<String> neiList = new LinkedList<String>();
+		speedLoop.execute(pool, numberActive, ChunkSize);
 
-		Cell c = new Cell();
+		projectionLoop.execute(pool, numberActive, ChunkSize);
 
-		Cell neighbor = new Cell();
+		receivingLoop.execute(pool, numberActive, ChunkSize);
 
-		Cell n = new Cell();
+	}
 
-		Hashtable<String, Double> neiPotentials = new Hashtable<String, Double>();
+	/**
+	 * updates the occupied and active cells. If they are valid, only the
+	 * previous active cells and the sources can contain people, otherwise all
+	 * the cells are scanned.
+	 */
 
-		for (String cid : cells.keySet()) {
+	private void computeActiveCells() {
 
-			c = cells.get(cid);
-			
-			//System.out.println("Cell id: " + cid);
+		if (activeCells == null || activeCells.length != numberCells) {
 
-			for (int i = 0; i < numberGroups; i++) {
+			occupiedCells = new int[numberCells];
+			activeCells = new int[numberCells];
+			marked = new boolean[numberCells];
+			pruneTargets = new int[numberCells];
+			numberTargets = 0;
 
-				String route = groups[i].getRoute();
+			numberActive = 0;
+			activeValid = false;
+		}
 
-				ArrayList<LogicalGroup> people = c.getPeople();
+		int n = 0;
 
-				for (LogicalGroup in : people) {
+		if (!activeValid) {
 
-					if (in.route.equals(route) && in.numberPeople > 0.0) {
+			for (int c = 0; c < numberCells; c++) {
+				if (network.people[c].size() > 0) {
+					occupiedCells[n++] = c;
+				}
+			}
 
-						double ml = in.numberPeople;
+		} else {
 
-						double sumPeople = c.getNumberPeople();
+			for (int i = 0; i < numberActive; i++) {
+				n = markOccupied(activeCells[i], n);
+			}
 
-						// if there are people of a certain group in the cell
+			for (int c : sources) {
+				n = markOccupied(c, n);
+			}
 
-						neiList = c.getNeighbors();
+			for (int i = 0; i < numberTargets; i++) {
+				n = markOccupied(pruneTargets[i], n);
+			}
 
-						double currentSFF = c.getSFF(route);
+			for (int i = 0; i < n; i++) {
+				marked[occupiedCells[i]] = false;
+			}
 
-						double currentPot = alpha * currentSFF - beta
-								* c.computeSpeed(); // potential of the
-													// current cell
+			Arrays.sort(occupiedCells, 0, n);
 
-						double totalPotDif = 0.0;
+		}
 
-						for (String ne : neiList) {
+		numberOccupied = n;
+		numberTargets = 0;
 
-							neighbor = cells.get(ne);
+		// adds the neighbors
 
-							if (neighbor.getSFF(route) > 0.0) {
+		int[] start = network.neighborStart;
+		int[] adj = network.neighbors;
 
-								double neiSFF = neighbor.getSFF(route);
-								double neiDFF = neighbor.computeSpeed();
-								double neiPot = alpha * neiSFF - beta * neiDFF;
+		int m = 0;
 
-								neiPotentials.put(ne, neiPot);
+		for (int i = 0; i < numberOccupied; i++) {
 
-								//if (neiSFF <= currentSFF) { // to avoid
-															// excessive
-															// spreading
-								// commented out as might be in conflict with choice theory.
+			int c = occupiedCells[i];
 
-									// computes the total difference of
-									// potential
+			if (!marked[c]) {
+				marked[c] = true;
+				activeCells[m++] = c;
+			}
 
-									totalPotDif += Math
-											.exp(-(neiPot - currentPot)); // discrete
-																			// choice
-																			// approach
+			for (int e = start[c]; e < start[c + 1]; e++) {
 
-								//}
-							}
+				if (!marked[adj[e]]) {
+					marked[adj[e]] = true;
+					activeCells[m++] = adj[e];
+				}
+			}
+		}
 
-						}
+		for (int i = 0; i < m; i++) {
+			marked[activeCells[i]] = false;
+		}
 
-						for (String nei : neiPotentials.keySet()) {
+		Arrays.sort(activeCells, 0, m);
 
-							double D = 0.0;
+		numberActive = m;
+		activeValid = true;
 
-							n = cells.get(nei);
+	}
 
-							if (totalPotDif != 0.0
-									//&& n.getSFF(route) <= currentSFF // to avoid excessive spreading
-									// commented out as might be in conflict with choice theory.
-									) {
+	/**
+	 * appends the cell to the occupied cells if it contains people and has
+	 * not been appended yet
+	 */
 
-								double neiPot = neiPotentials.get(nei);
+	private int markOccupied(int c, int n) {
 
-								// turning proportion
+		if (!marked[c] && network.people[c].size() > 0) {
+			marked[c] = true;
+			occupiedCells[n++] = c;
+		}
 
-								D = Math.exp(-(neiPot - currentPot))
-										/ totalPotDif;
+		return n;
 
-							}
+	}
+
+	/**
+	 * projects the people of each group of the cell onto its outgoing edges.
+	 * Only writes to the outgoing edges of the cell. The turning proportions
+	 * of a route are computed once and shared by all its groups in the cell.
+	 */
+
+	private void projectCell(int c, TurningCache cache) {
+
+		int[] adj = network.neighbors;
+
+		Occupancy people = network.people[c];
+
+		double sumPeople = network.numberPeople[c];
+		double Qs = network.getQs(c);
+
+		double[] proportions = cache.proportions;
+
+		cache.nextCell();
+
+		for (int g = 0; g < people.size(); g++) {
+
+			long key = people.getKey(g);
 
-							if (D > 0.0) {
-
-								// computes the weighed sending flow
-								double sendingFlow = 0;
-								
-								double tolerance = 1e-9;
-								 
-								 if (ml > sumPeople && //ml is exceeds sumPeople
-										 sumPeople/ml <= 0.99 //error is larger than 1%
-										 ){
-									 if ( ! (-tolerance < ml && ml < tolerance)  && //ml is non-negligible
-									 ! (-tolerance < sumPeople && ml < tolerance) ){ // sumPeople is non-negligible)
-										 System.out.println("Warning: Some people got lost: ml = " + ml +
-												 ", sumPeople = " + sumPeople);
-									 }
-									 sendingFlow = D * ml;
-								 }
-								else {
-									sendingFlow = Math.min(D * ml, D
-											* (ml / sumPeople) * c.getQs());
-								}							
-								
-								if (sendingFlow >= 0){
-									//System.out.println("Desired sending flow " + cid + " -> " + n.getCid() + " (on " + in.route + ", dep: "
-									//		+ in.startInterval + "): " + sendingFlow);
-								}
-								else {
-									System.out.println("\nWarning: Sending flow has value NaN or is negative.");
-									System.out.println("Desired sending flow " + cid + " -> " + n.getCid() + " (on " + in.route + ", dep: "
-											+ in.startInterval + "): " + sendingFlow);
-									System.out.println("Min(" + D * ml + "," + D
-										* (ml / sumPeople) * c.getQs() + ")");
-									System.out.println("D = " + D + ", ml = " + ml + ", sumPeople = " +
-										sumPeople + ", Qs = " + c.getQs() );
-								}
-								
-
-								LogicalGroup tmp = new LogicalGroup(in.route,
-										in.startInterval, sendingFlow);
-
-								
-								
-								n.setReceiving(cid, tmp);
-								n.addProjectedOccupancy(sendingFlow);				
-
-								cells.put(nei, n);
-								cells.put(cid, c);
-
-								list.add(nei);
+			double ml = people.getPeople(g);
 
+			if (ml > 0.0) {
+
+				// if there are people of a certain group in the cell
+
+				int route = LogicalGroup.route(key);
+
+				int field = routeField[route];
+
+				RouteGraph graph = fields[field];
+
+				if (!cache.isCached(field)) {
+
+					int row = graph.rowOf(c);
+
+					cache.rows[field] = row;
+
+					if (row >= 0) {
+						computeTurningProportions(graph, row, proportions,
+								field * cache.maxDegree - graph.edgeStart[row]);
+					}
+				}
+
+				int row = cache.rows[field];
+
+				if (row < 0) {
+					continue; // no neighbor of the cell is on the route
+				}
+
+				int offset = field * cache.maxDegree - graph.edgeStart[row];
+
+				for (int j = graph.edgeStart[row]; j < graph.edgeStart[row + 1]; j++) {
+
+					int e = graph.edges[j];
+					int n = adj[e];
+
+					double D = proportions[offset + j];
+
+					if (D > 0.0) {
+
+						// computes the weighed sending flow
+						double sendingFlow = 0;
+
+						double tolerance = 1e-9;
+
+						if (ml > sumPeople && // ml is exceeds sumPeople
+								sumPeople / ml <= 0.99 // error is larger
+														// than 1%
+						) {
+							if (!(-tolerance < ml && ml < tolerance) && // ml is non-negligible
+									!(-tolerance < sumPeople && ml < tolerance)) { // sumPeople is non-negligible)
+								System.out
+										.println("Warning: Some people got lost: ml = "
+												+ ml
+												+ ", sumPeople = "
+												+ sumPeople);
 							}
+							sendingFlow = D * ml;
+						} else {
+							sendingFlow = Math.min(D * ml, D
+									* (ml / sumPeople) * Qs);
+						}
 
+						if (!(sendingFlow >= 0)) {
+							System.out
+									.println("\nWarning: Sending flow has value NaN or is negative.");
+							System.out.println("Desired sending flow "
+									+ network.cid[c] + " -> "
+									+ network.cid[n] + " (on "
+									+ groups[route].getRoute()
+									+ ", dep: "
+									+ LogicalGroup.interval(key)
+									+ "): " + sendingFlow);
+							System.out.println("Min(" + D * ml + ","
+									+ D * (ml / sumPeople) * Qs + ")");
+							System.out.println("D = " + D + ", ml = "
+									+ ml + ", sumPeople = " + sumPeople
+									+ ", Qs = " + Qs);
 						}
 
-						neiPotentials.clear();
+						network.sending[e].add(key, sendingFlow);
+						network.edgeSending[e] += sendingFlow;
 
 					}
 
 				}
+
 			}
 
 		}
 
-		return list;
-
 	}
 
 	/**
-	 * update the effective people of each group in each cell
+	 * computes the turning proportions (discrete choice approach) of a route
+	 * from a cell towards each of its admissible neighbors, using the speeds
+	 * of the current step. The proportion of the j-th edge of the subgraph is
+	 * stored at offset + j.
 	 * 
-	 * @param list
+	 * The weight of a neighbor exp(-(P_n - P_c)), with the potential P =
+	 * alpha * SFF - beta * speed, is the product of the static weight of the
+	 * edge and of exp(beta * speed_n) (the factor exp(-beta * speed_c) is the
+	 * same for all the neighbors and cancels out).
 	 */
 
-	private void updateCells(LinkedList<String> list) {
+	private void computeTurningProportions(RouteGraph graph, int row,
+			double[] proportions, int offset) {
 
-		Cell c = new Cell();
+		int[] adj = network.neighbors;
 
-		Cell proj = new Cell();
+		double[] speedWeight = network.speedWeight;
 
-		Cell n = new Cell();
+		double totalPotDif = 0.0;
 
-		ArrayList<LogicalGroup> receiving = new ArrayList<LogicalGroup>();
+		for (int j = graph.edgeStart[row]; j < graph.edgeStart[row + 1]; j++) {
 
-		for (String cid : list) {
+			double weight = graph.weights[j] * speedWeight[adj[graph.edges[j]]];
+
+			// computes the total difference of potential
+
+			totalPotDif += weight;
+
+			proportions[offset + j] = weight;
+
+		}
+
+		for (int j = graph.edgeStart[row]; j < graph.edgeStart[row + 1]; j++) {
+
+			if (totalPotDif != 0.0) {
+
+				proportions[offset + j] /= totalPotDif; // turning proportion
+
+			} else {
+
+				proportions[offset + j] = 0.0;
 
-			c = cells.get(cid);
-			
-			if (c.getProjectedOccupancy() < 0.0) {
-				System.out.println("Warning: Negative projected occupancy");
-			}
-			
-			if (c.getProjectedOccupancy() == Double.NaN) {
-				System.out.println("Warning: NaN projected occupancy");
 			}
-			
-			//System.out.println("cell id: " + cid + " projected inflow: " + c.getProjectedOccupancy());
-			
-			
-			if (c.getProjectedOccupancy() > 0.0) {
 
-				double ss = c.getSumSending();
+		}
 
-				//System.out.println("cell id: " + cid + " sending capacity: " + ss);
-				
-				// no congestion in the cell
+	}
 
-				if (ss <= c.getRc()) {
+	/**
+	 * sums the flows projected to the cell and precomputes its receiving
+	 * capacity (to avoid a clearing problem). Only writes to the state of the
+	 * cell.
+	 */
 
-					for (String neighbor : c.getNeighbors()) {
+	private void receiveCell(int c) {
 
-						n = cells.get(neighbor);
-						boolean skip = false;
-						try {
-							receiving.clear();
-							receiving.addAll(c.getReceiving(neighbor));
-						} catch (NullPointerException e) {
-							skip = true;
-						}
-						if (!skip) {
+		int[] inStart = network.incomingStart;
+		int[] incoming = network.incoming;
 
-							for (LogicalGroup rec : receiving) {
+		double projected = 0.0;
+		boolean receiving = false;
 
-								// if the cell is going to receive people
+		for (int i = inStart[c]; i < inStart[c + 1]; i++) {
 
-								if (rec.numberPeople > 0.0) {
+			int e = incoming[i];
 
-									int start = rec.startInterval;
-									String route = rec.route;
-									double d = rec.numberPeople;
+			if (!network.sending[e].isEmpty()) {
 
-									n.subPeople(rec);
-									c.addPeople(rec);
+				projected += network.edgeSending[e];
+				receiving = true;
 
-									c.receivingDone(n.getCid(), rec.route,
-											rec.startInterval);
+			}
+		}
 
-									// sensor part
+		network.projectedOccupancy[c] = projected;
 
-									if (sensors.containsKey(cid)) {
+		if (receiving) {
 
-										LogicalGroup in = new LogicalGroup(
-												route, start, d);
+			network.computeReceivingCapacity(c);
 
-										int interval = in.startInterval;
-										double weight = in.numberPeople;
-										String id = String.valueOf(interval)
-												.concat(route.concat(String
-														.valueOf(weight)));
+		}
 
-										Hashtable<String, Sensor> sensorsTmp = sensors
-												.get(cid);
+	}
 
-										if (sensorsTmp.containsKey(id)) {
-											Sensor sensor = sensorsTmp.get(id);
-											sensor.addWeight(weight);
-											sensorsTmp.put(id, sensor);
-										} else {
-											Sensor sensor = new Sensor(
-													interval, route, timestep,
-													weight);
+	/**
+	 * update the effective people of each group in each cell. The update is
+	 * done in two passes, so that each cell only modifies its own state: the
+	 * receiving cells first add the people they accept from each incoming
+	 * edge, then the sending cells subtract the people accepted by their
+	 * neighbors.
+	 */
 
-											sensorsTmp.put(id, sensor);
-										}
+	private void updateCells() {
 
-										sensors.put(cid, sensorsTmp);
-									}
+		inflowLoop.execute(pool, numberActive, ChunkSize);
 
-								}
-							}
+		outflowLoop.execute(pool, numberActive, ChunkSize);
 
-						}
-						cells.put(neighbor, n);
-						cells.put(cid, c);
-					}
-				}
+		if (pruningThreshold > 0.0) {
+			pruneResidues();
+		}
 
-				// congestion in the cell
+		fillSources();
 
-				else {
+		computeActiveCells();
 
-					for (String neighbor : c.getNeighbors()) {
+	}
 
-						n = cells.get(neighbor);
-						boolean skip = false;
-						try {
-							receiving.clear();
-							receiving.addAll(c.getReceiving(neighbor));
-						} catch (NullPointerException e) {
-							skip = true;
-						}
+	/**
+	 * removes the logical groups of fewer than pruningThreshold people from
+	 * the active cells (residues left by the diffusion of the flows), so that
+	 * they are not iterated, projected and written anymore. The people of
+	 * such a group are merged into the largest group of the same route in
+	 * the cell. If the group is the largest of its route in the cell, it is
+	 * moved to the neighbor with the lowest potential on the subgraph of the
+	 * route, i.e. downstream, as if it had walked one cell (and recorded if
+	 * this neighbor is a sensor). A cell that received people this way is
+	 * not pruned before the next step.
+	 *
+	 * The people who cannot be moved (in a cell without admissible neighbor)
+	 * are removed and added to the pruned mass of their route, so that the
+	 * people injected are always the sum of the people in the cells, of the
+	 * people arrived at the sinks and of the pruned mass. The people who have
+	 * reached the sink of their route are kept, so that emptySinks() counts
+	 * them as arrivals.
+	 */
 
-						if (!skip) {
+	private void pruneResidues() {
 
-							for (LogicalGroup rec : receiving) {
+		if (largestKey == null || largestKey.length != groups.length) {
 
-								/*
-								 * if the total number of people wanting to
-								 * enter the cell is superior to the current
-								 * capacity => congestion
-								 */
+			largestKey = new long[groups.length];
+			largestPeople = new double[groups.length];
+			largestStamp = new int[groups.length];
+			pruneStamp = 0;
+		}
 
-								if (ss > 0.0) {
+		for (int i = 0; i < numberActive; i++) {
 
-									// ratio of the group i that can enter the
-									// cell
+			int c = activeCells[i];
 
-									double res = (rec.numberPeople / ss)
-											* c.getRc();
+			if (marked[c]) {
+				continue; // has received people from a pruned neighbor
+			}
 
-									LogicalGroup tmp = new LogicalGroup(
-											rec.route, rec.startInterval, res);
+			Occupancy people = network.people[c];
 
-									if (rec.numberPeople > 0.0) {
+			// largest group of each route
 
-										int start = tmp.startInterval;
-										String route = tmp.route;
-										double d = tmp.numberPeople;
+			pruneStamp++;
 
-										n.subPeople(tmp);
+			for (int g = 0; g < people.size(); g++) {
 
-										c.addPeople(tmp);
+				int route = LogicalGroup.route(people.getKey(g));
 
-										c.receivingDone(n.getCid(), tmp.route,
-												tmp.startInterval);
+				if (largestStamp[route] != pruneStamp
+						|| people.getPeople(g) > largestPeople[route]) {
 
-										// sensor part
+					largestStamp[route] = pruneStamp;
+					largestKey[route] = people.getKey(g);
+					largestPeople[route] = people.getPeople(g);
+				}
+			}
 
-										if (sensors.containsKey(cid)) {
+			// merges the small groups into the largest group of their route
+			// (removeAt() moves the last group, so the loop goes backwards)
 
-											LogicalGroup in = new LogicalGroup(
-													route, start, d);
+			for (int g = people.size() - 1; g >= 0; g--) {
 
-											int interval = in.startInterval;
-											double weight = in.numberPeople;
-											String id = String
-													.valueOf(interval)
-													.concat(route.concat(String
-															.valueOf(weight)));
+				long key = people.getKey(g);
+				int route = LogicalGroup.route(key);
+				double d = people.getPeople(g);
 
-											Hashtable<String, Sensor> sensorsTmp = sensors
-													.get(cid);
+				if (d < pruningThreshold && key != largestKey[route]
+						&& sinks[route] != c) {
 
-											if (sensorsTmp.containsKey(id)) {
-												Sensor sensor = sensorsTmp
-														.get(id);
-												sensor.addWeight(weight);
-												sensorsTmp.put(id, sensor);
-											} else {
-												Sensor sensor = new Sensor(
-														interval, route,
-														timestep, weight);
+					people.removeAt(g);
+					people.add(largestKey[route], d);
+				}
+			}
 
-												sensorsTmp.put(id, sensor);
-											}
+			// moves the largest groups that are still small downstream
 
-											sensors.put(cid, sensorsTmp);
-										}
+			for (int g = people.size() - 1; g >= 0; g--) {
 
-									}
-								}
-							}
+				long key = people.getKey(g);
+				int route = LogicalGroup.route(key);
+				double d = people.getPeople(g);
+
+				if (d < pruningThreshold && sinks[route] != c) {
+
+					people.removeAt(g);
+					network.numberPeople[c] -= d;
+
+					int n = downstreamNeighbor(c, route);
+
+					if (n >= 0) {
+
+						network.addPeople(n, key, d);
+
+						if (sensors[n] != null) {
+							sensors[n].record(key, timestep, d);
 						}
 
-						cells.put(neighbor, n);
+						if (!marked[n]) {
+							marked[n] = true;
+							pruneTargets[numberTargets++] = n;
+						}
+
+					} else {
+
+						prunedMass[route] += d;
+						population -= d;
 
 					}
 				}
 			}
 
-			cells.put(cid, c);
+			if (people.size() == 0) {
+				network.numberPeople[c] = 0.0; // no rounding residue
+			}
+		}
 
+		for (int i = 0; i < numberTargets; i++) {
+			marked[pruneTargets[i]] = false;
 		}
 
-		// reset all projections
+	}
+
+	/**
+	 * returns the neighbor of the cell with the lowest potential on the
+	 * subgraph of the route, -1 if the cell cannot send people along it
+	 */
 
-		for (String cid : list) {
+	private int downstreamNeighbor(int c, int route) {
 
-			proj = cells.get(cid);
-			proj.reinitializeProjections();
+		RouteGraph graph = fields[routeField[route]];
 
-			cells.put(cid, proj);
+		int row = graph.rowOf(c);
 
+		if (row < 0) {
+			return -1;
 		}
 
-		fillSources();
+		int[] adj = network.neighbors;
+
+		int best = -1;
+		double lowest = 0.0;
+
+		for (int j = graph.edgeStart[row]; j < graph.edgeStart[row + 1]; j++) {
+
+			int n = adj[graph.edges[j]];
+			double p = graph.getPotential(n);
+
+			if (best < 0 || p < lowest) {
+				best = n;
+				lowest = p;
+			}
+		}
+
+		return best;
 
 	}
 
 	/**
-	 * updates the text files when the visualization is not enabled.
+	 * returns the part of a flow projected to the cell that it accepts
 	 */
 
-	public void updateText() {
+	private double acceptedFlow(int c, double flow) {
 
-		String s = "";
-		String cids ="";
-		String[] sGroup = new String[groups.length];
+		double ss = network.projectedOccupancy[c];
 
-		String[] SFF = new String[groups.length];
+		/*
+		 * if the total number of people wanting to enter the cell is superior
+		 * to the current capacity => congestion
+		 */
 
-		for (int i = 0; i < sGroup.length; i++) {
-			sGroup[i] = new String();
+		if (ss > network.Rc[c]) {
+
+			// ratio of the group that can enter the cell
+
+			return (flow / ss) * network.Rc[c];
 
-			if (timestep == 0) {
-				SFF[i] = new String();
-			}
 		}
 
-		Cell c = new Cell();
+		// no congestion in the cell
 
-		for (String a : cells.keySet()) {
+		return flow;
+
+	}
+
+	/**
+	 * adds the people accepted from the incoming edges to the cell (first
+	 * pass of the update)
+	 */
+
+	private void receivePeople(int c) {
+
+		int[] inStart = network.incomingStart;
+		int[] incoming = network.incoming;
+
+		if (network.projectedOccupancy[c] < 0.0) {
+			System.out.println("Warning: Negative projected occupancy");
+		}
+
+		if (Double.isNaN(network.projectedOccupancy[c])) {
+			System.out.println("Warning: NaN projected occupancy");
+		}
+
+		if (network.projectedOccupancy[c] > 0.0) {
+
+			for (int i = inStart[c]; i < inStart[c + 1]; i++) {
+
+				FlowBuffer flows = network.sending[incoming[i]];
+
+				for (int k = 0; k < flows.size(); k++) {
+
+					if (flows.getPeople(k) > 0.0) {
+
+						double d = acceptedFlow(c, flows.getPeople(k));
+
+						network.addPeople(c, flows.getKey(k), d);
+
+						// sensor part
+
+						if (sensors[c] != null) {
+
+							sensors[c].record(flows.getKey(k), timestep, d);
+
+						}
+
+					}
+				}
 
-			c = cells.get(a);
-			
-			if (timestep == 0) {
-				cids = cids.concat(c.getCid());
-				cids = cids.concat(" ");
 			}
-			
-			
-			s = s.concat(String.valueOf(c.getNumberPeople()));
-			s = s.concat(" ");
+		}
 
-			for (int i = 0; i < groups.length; i++) {
+	}
 
-				sGroup[i] = sGroup[i].concat(String.valueOf(c
-						.getGroupPeople(groups[i].getRoute())));
-				sGroup[i] = sGroup[i].concat(" ");
-				if (timestep == 0) {
-					SFF[i] = SFF[i].concat(String.valueOf(c.getSFF(groups[i]
-							.getRoute())));
-					SFF[i] = SFF[i].concat(" ");
+	/**
+	 * subtracts the people accepted by the neighbors from the cell and resets
+	 * the projections along its outgoing edges (second pass of the update)
+	 */
+
+	private void sendPeople(int c) {
+
+		int[] start = network.neighborStart;
+		int[] adj = network.neighbors;
+
+		for (int e = start[c]; e < start[c + 1]; e++) {
+
+			int n = adj[e];
+
+			if (network.projectedOccupancy[n] > 0.0) {
+
+				FlowBuffer flows = network.sending[e];
+
+				for (int k = 0; k < flows.size(); k++) {
+
+					if (flows.getPeople(k) > 0.0) {
+
+						network.subPeople(c, flows.getKey(k),
+								acceptedFlow(n, flows.getPeople(k)));
+
+					}
 				}
 			}
 
+			network.sending[e].clear();
+			network.edgeSending[e] = 0.0;
+
+		}
+
+	}
+
+	/**
+	 * writes the state of the time step to the space time outputs. The
+	 * outputs are opened at the first call. The number of people of each
+	 * route is only computed if an output uses it at this time step.
+	 */
+
+	public void updateText() {
+
+		if (outputs.isEmpty()) {
+			return;
+		}
+
+		if (!outputOpened) {
+
+			openOutputs();
+
+			outputOpened = true;
+		}
+
+		boolean needsRoutes = false;
+
+		for (int i = 0; i < outputs.size(); i++) {
+			needsRoutes |= outputs.get(i).needsRoutes(timestep);
+		}
+
+		if (needsRoutes) {
+			computeRouteCells();
+		}
+
+		for (int i = 0; i < outputs.size(); i++) {
+
+			try {
+
+				outputs.get(i).write(timestep, network.numberPeople,
+						needsRoutes ? routeCells : null, routeValues,
+						routeCounts);
+
+			} catch (IOException e) {
+
+				e.printStackTrace();
+
+				closeFailedOutput(outputs.remove(i--)); // stops writing it
+
+			}
 		}
+	}
+
+	/**
+	 * opens the outputs. The static floor fields are only copied if an output
+	 * requests them.
+	 */
+	private void openOutputs() {
+
+		String[] routes = new String[groups.length];
 
 		for (int i = 0; i < groups.length; i++) {
+			routes[i] = groups[i].getRoute();
+		}
+
+		double[][] potentials = null;
+
+		for (FilteredOutput o : outputs) {
+
+			OutputPolicy policy = o.getPolicy();
+
+			if (potentials == null && policy.hasRoutes()
+					&& policy.hasPotentials()) {
+
+				potentials = new double[groups.length][numberCells];
+
+				for (int i = 0; i < groups.length; i++) {
+					for (int c = 0; c < numberCells; c++) {
+						potentials[i][c] = fields[routeField[i]]
+								.getPotential(c);
+					}
+				}
+			}
+		}
+
+		routeCells = new int[groups.length][16];
+		routeValues = new double[groups.length][16];
+		routeCounts = new int[groups.length];
+
+		for (int i = 0; i < outputs.size(); i++) {
+
+			try {
+
+				outputs.get(i).open(network, routes, deltaL, timeInterval,
+						potentials);
+
+			} catch (IOException e) {
 
-			String route = groups[i].getRoute();
-			ArrayList<String> tmp = routeTextOutput.get(route);
-			if (timestep == 0) {
+				e.printStackTrace();
+
+				closeFailedOutput(outputs.remove(i--));
+
+			} catch (IllegalArgumentException e) {
+
+				// a cell or a zone of the policy does not exist
+
+				System.out.println("Error: output not opened, "
+						+ e.getMessage());
+
+				closeFailedOutput(outputs.remove(i--));
 
-				tmp.add(SFF[i]);
 			}
+		}
+
+	}
+
+	/**
+	 * closes an output removed after an error, so that its files and its
+	 * writer thread are released. The output is already broken, so a second
+	 * error while closing it is ignored.
+	 */
+	private void closeFailedOutput(FilteredOutput output) {
+
+		try {
 
-			tmp.add(sGroup[i]);
-			routeTextOutput.put(route, tmp);
+			output.close();
 
+		} catch (IOException e) {
+			// already reported
+		} catch (RuntimeException e) {
+			// the sink may not have been opened
 		}
-		if(timestep==0){
-			textOutput.add(cids);
+
+	}
+
+	/**
+	 * lists the cells where each route is present, in increasing order, with
+	 * the number of people of the route. The cost is proportional to the
+	 * number of groups in the cells, not to the number of routes.
+	 */
+	private void computeRouteCells() {
+
+		Arrays.fill(routeCounts, 0);
+
+		if (!activeValid) {
+			computeActiveCells();
 		}
-		textOutput.add(s);
+
+		for (int i = 0; i < numberOccupied; i++) {
+
+			int c = occupiedCells[i];
+
+			Occupancy people = network.people[c];
+
+			for (int g = 0; g < people.size(); g++) {
+
+				int r = LogicalGroup.route(people.getKey(g));
+				int k = routeCounts[r];
+
+				if (k > 0 && routeCells[r][k - 1] == c) {
+
+					// another departure interval of the route
+
+					routeValues[r][k - 1] += people.getPeople(g);
+
+				} else {
+
+					if (k == routeCells[r].length) {
+						routeCells[r] = Arrays.copyOf(routeCells[r], 2 * k);
+						routeValues[r] = Arrays.copyOf(routeValues[r], 2 * k);
+					}
+
+					routeCells[r][k] = c;
+					routeValues[r][k] = people.getPeople(g);
+					routeCounts[r] = k + 1;
+
+				}
+			}
+		}
+
 	}
 
 	/**
@@ -1064,43 +1516,39 @@ public class Board extends Observable {
 
 		ArrayList<float[]> upList = new ArrayList<float[]>();
 
-		double sum = 0.0;
+		double[] routePeople = new double[groups.length];
 
-		Cell c = new Cell();
+		for (int c = 0; c < numberCells; c++) {
 
-		for (String cid : cells.keySet()) {
-
-			c = cells.get(cid);
-
-			sum += c.getNumberPeople();
+			Arrays.fill(routePeople, 0.0);
+			network.addRoutePeople(c, routePeople);
 
 			float[] tmp = new float[14 + groups.length];
 
-			System.arraycopy(c.getCoordinates(), 0, tmp, 0, 8);
+			System.arraycopy(network.coordinates, 8 * c, tmp, 0, 8);
 
-			tmp[8] = (float) c.getNumberPeople();
-			tmp[9] = (float) c.getArea();
-			tmp[10] = (float) c.computeSpeed();
-			tmp[11] = (float) c.getFlow();
-			tmp[12] = (float) c.getQmax();
-			tmp[13] = (float) c.getKc();
+			tmp[8] = (float) network.numberPeople[c];
+			tmp[9] = (float) network.area[c];
+			tmp[10] = (float) network.computeSpeed(c);
+			tmp[11] = (float) network.getFlow(c);
+			tmp[12] = (float) network.Qmax[c];
+			tmp[13] = (float) network.kc[c];
 
 			for (int i = 0; i < groups.length; i++) {
 
-				if (c.getGroupPeople(groups[i].getRoute()) > 0.0) {
-					tmp[14 + i] = (float) (c.getGroupPeople(groups[i]
-							.getRoute()) / c.getArea());
+				if (routePeople[i] > 0.0) {
+					tmp[14 + i] = (float) (routePeople[i] / network.area[c]);
 				}
 
 			}
 
-			upList.add(tmp.clone());
+			upList.add(tmp);
 
 		}
 
 		// ending condition
-		if ((this.timestep > this.startingTime && sum < endingSum) ||
-				this.timestep >= MaxTimeSteps) {
+		if ((this.timestep > this.startingTime && population < endingSum)
+				|| this.timestep >= MaxTimeSteps) {
 
 			this.go = false;
 			this.end = true;
@@ -1125,14 +1573,14 @@ public class Board extends Observable {
 					&& timestep < g.getStartTime()
 							+ g.getStartRepartition().length) {
 
-				Cell c = cells.get(sources[i]);
+				double n = g.getStartRepartition()[timestep
+						- g.getStartTime()];
 
-				LogicalGroup in = new LogicalGroup(g.getRoute(), timestep,
-						g.getStartRepartition()[timestep - g.getStartTime()]);
+				network.addPeople(sources[i], LogicalGroup.key(i,
+						g.getCohort(timestep, cohortLength)), n);
 
-				c.addPeople(in);
+				population += n;
 
-				cells.put(sources[i], c);
 			}
 		}
 
@@ -1146,34 +1594,27 @@ public class Board extends Observable {
 
 		for (int i = 0; i < groups.length; i++) {
 
-			ArrayList<LogicalGroup> intervals = new ArrayList<LogicalGroup>();
-			Cell c = cells.get(sinks[i]);
-			String route = groups[i].getRoute();
-			boolean skip = false;
-			try {
-				intervals.addAll(c.getPeople());
+			int c = sinks[i];
+			Occupancy people = network.people[c];
 
-			} catch (NullPointerException e) {
-				skip = true;
-			}
-			if (!skip) {
-				for (LogicalGroup pe : intervals) {
-					if (pe.route.equals(route)) {
+			for (int g = people.size() - 1; g >= 0; g--) {
 
-						double d = pe.numberPeople;
-						LogicalGroup toSub = new LogicalGroup(pe.route,
-								pe.startInterval, pe.numberPeople);
-						c.subPeople(toSub);
+				long key = people.getKey(g);
 
-						groups[i].addTravelTime(pe.startInterval, timestep
-								- pe.startInterval, d);
+				if (LogicalGroup.route(key) == i) {
+
+					int start = LogicalGroup.interval(key);
+					double d = people.getPeople(g);
+
+					people.removeAt(g);
+					network.numberPeople[c] -= d;
+					population -= d;
+
+					groups[i].addTravelTime(start, timestep - start, d);
 
-					}
 				}
 			}
 
-			cells.put(sinks[i], c);
-
 			groups[i].setEndTime(timestep);
 
 		}
@@ -1187,146 +1628,378 @@ public class Board extends Observable {
 
 	public void checkEnding() {
 
-		double sum = 0.0; // total number of people in the simulation
+		// corrects the rounding errors accumulated by the updates
 
-		ArrayList<String> l = new ArrayList<String>(cells.keySet());
-		Collections.sort(l, cidComparator);
+		if (this.timestep % RecountInterval == 0) {
 
-		// computes sum
+			double sum = 0.0;
 
-		for (String a : l) {
+			for (int c = 0; c < numberCells; c++) {
+				sum += network.numberPeople[c];
+			}
+
+			population = sum;
 
-			Cell c = cells.get(a);
-			sum += c.getNumberPeople();
+			activeValid = false; // the cells are scanned at the next step
 		}
 
 		if (this.timestep % 100 == 0 && this.timestep > 0){
-			System.out.print("totP: "+ String.format("%.3g", sum) +" | ");
+			System.out.print("totP: "+ String.format("%.3g", population) +" | ");
 		}
 		
 		
 		
 		// ending condition
 
-		if ((this.timestep > this.startingTime && sum < endingSum) ||
-				this.timestep >= MaxTimeSteps) {
-			
-			System.out.println("Stopped at "+this.timestep);
-			this.go = false;
-			this.end = true;
+		if ((this.timestep > this.startingTime && population < endingSum) ||
+				this.timestep >= MaxTimeSteps) {
+			
+			System.out.println("Stopped at "+this.timestep);
+			this.go = false;
+			this.end = true;
+
+			if (pruningThreshold > 0.0) {
+				checkPrunedMass();
+			}
+
+		}
+
+	}
+
+	/**
+	 * warns if the pruning removed more than PrunedTolerance of the people of
+	 * a route, i.e. if the threshold is too large for the scenario
+	 */
+
+	private void checkPrunedMass() {
+
+		for (int i = 0; i < groups.length; i++) {
+
+			double injected = 0.0;
+
+			for (double n : groups[i].getStartRepartition()) {
+				injected += n;
+			}
+
+			if (prunedMass[i] > PrunedTolerance * injected) {
+
+				System.out.println("Warning: the pruning removed "
+						+ prunedMass[i] + " of the " + injected
+						+ " people of route " + groups[i].getRoute()
+						+ ", the pruning threshold is too large");
+
+			}
+		}
+
+	}
+
+	/**
+	 * loads the data used in the evaluation
+	 * 
+	 * @return true - if everything went well
+	 */
+
+	public boolean loadData(String filename_demand) {
+
+		boolean valid = true;
+
+		BufferedReader CSVFile;
+
+		LinkedList<String[]> list = new LinkedList<String[]>();
+
+		try {
+
+			CSVFile = new BufferedReader(new FileReader(new File(
+					filename_demand)));
+
+			String row = CSVFile.readLine();
+
+			while (row != null) {
+
+				String[] data = row.split(",");
+				list.add(data);
+
+				row = CSVFile.readLine();
+
+			}
+
+			CSVFile.close();
+
+			for (String[] el : list) {
+
+				if (data.containsKey(el[1])) {
+
+					Hashtable<Integer, Hashtable<Double, Double>> tmp = data
+							.get(el[1]);
+
+					Hashtable<Double, Double> p;
+
+					if (tmp.containsKey(el[0])) {
+
+						p = tmp.get(el[0]);
+						p.put(Double.valueOf(el[2]), Double.valueOf(el[3]));
+
+					} else {
+
+						p = new Hashtable<Double, Double>();
+						p.put(Double.valueOf(el[2]), Double.valueOf(el[3]));
+					}
+
+					tmp.put(Integer.valueOf(el[0]), p);
+					data.put(el[1], tmp);
+
+				} else {
+
+					Hashtable<Integer, Hashtable<Double, Double>> tmp = new Hashtable<Integer, Hashtable<Double, Double>>();
+
+					Hashtable<Double, Double> p = new Hashtable<Double, Double>();
+					p.put(Double.valueOf(el[2]), Double.valueOf(el[3]));
+
+					tmp.put(Integer.valueOf(el[0]), p);
+					data.put(el[1], tmp);
+				}
+
+			}
+
+		} catch (Exception e) {
+
+			valid = false;
+		}
+
+		return valid;
+	}
+
+	/**
+	 * adds all the parameters that couldn't be determined before
+	 */
+
+	public void addMissing() {
+
+		sources = new int[numberGroups];
+		sinks = new int[numberGroups];
+
+		groups = new PhysicalGroup[numberGroups];
+		prunedMass = new double[numberGroups];
+
+		int index = 0;
+
+		for (String id : demand.keySet()) {
+
+			PhysicalGroup g = demand.get(id);
+			String[] route = id.split("-");
+			g.setRouteArray(route);
+			g.buildRepartition();
+
+			groups[index] = g;
+			sources[index] = network.indexOf(groups[index].getSource());
+			sinks[index] = network.indexOf(groups[index].getSink());
+
+			index++;
+		}
+
+		this.go = true;
+	}
+
+	/**
+	 * loads a scenario, i.e. the layout and the demand, and computes its
+	 * static floor fields (see loadLayout(), loadDemand(), addMissing() and
+	 * computePotentialFields()). If the bundle file was compiled from the
+	 * same layout and demand files, the scenario is read from it instead,
+	 * otherwise the bundle is (re)written from the loaded scenario.
+	 * 
+	 * @return true - if everything went well
+	 */
+
+	public boolean loadScenario(File layout, File demand, File bundle) {
+
+		byte[] hash;
+
+		try {
+
+			hash = ScenarioBundle.contentHash(layout, demand);
+
+		} catch (IOException e) {
+
+			e.printStackTrace();
+			return false;
+
+		}
+
+		if (ScenarioBundle.isUpToDate(bundle, hash) && openBundle(bundle)) {
+
+			this.filenameLayout = layout.getAbsolutePath();
+			this.filenameDemand = demand.getAbsolutePath();
+
+			return true;
+		}
+
+		if (!loadLayout(layout) || !loadDemand(demand)) {
+			return false;
+		}
+
+		addMissing();
+
+		computePotentialFields();
+
+		try {
+
+			writeBundle(bundle, hash);
+
+		} catch (IOException e) {
+
+			System.out.println("Warning: the scenario bundle "
+					+ bundle.getPath() + " could not be written ("
+					+ e.getMessage() + ")");
 
 		}
 
+		return true;
 	}
 
 	/**
-	 * loads the data used in the evaluation
+	 * writes the scenario to a bundle. Has to be called after
+	 * computePotentialFields().
 	 * 
-	 * @return true - if everything went well
+	 * @param hash
+	 *            - hash of the layout and demand files (see
+	 *            ScenarioBundle.contentHash())
 	 */
 
-	public boolean loadData(String filename_demand) {
-
-		boolean valid = true;
+	public void writeBundle(File f, byte[] hash) throws IOException {
 
-		BufferedReader CSVFile;
+		ScenarioBundle b = new ScenarioBundle();
 
-		LinkedList<String[]> list = new LinkedList<String[]>();
+		b.hash = hash;
 
-		try {
+		b.numberCells = numberCells;
+		b.deltaL = deltaL;
+		b.alpha = alpha;
+		b.beta = beta;
+		b.sensorIds = sensorIds;
 
-			CSVFile = new BufferedReader(new FileReader(new File(
-					filename_demand)));
+		b.cid = network.cid;
+		b.zone = network.zone;
+		b.shape = network.shape;
+		b.area = network.area;
+		b.kc = network.kc;
+		b.delta = network.delta;
+		b.coordinates = network.coordinates;
+		b.bounds = bounds;
 
-			String row = CSVFile.readLine();
+		b.neighborStart = network.neighborStart;
+		b.neighbors = network.neighbors;
 
-			while (row != null) {
+		b.startingTime = startingTime;
+		b.routes = new String[groups.length];
+		b.repartitions = new double[groups.length][];
+		for (int i = 0; i < groups.length; i++) {
+			b.routes[i] = groups[i].getRoute();
+			b.repartitions[i] = groups[i].getStartRepartition();
+		}
+		b.sources = sources;
+		b.sinks = sinks;
 
-				String[] data = row.split(",");
-				list.add(data);
+		b.routeField = routeField;
+		b.fields = fields;
 
-				row = CSVFile.readLine();
+		b.write(f);
 
-			}
+	}
 
-			CSVFile.close();
+	/**
+	 * reads a scenario from a bundle, replaces loadLayout(), loadDemand(),
+	 * addMissing() and computePotentialFields()
+	 * 
+	 * @return true - if everything went well
+	 */
 
-			for (String[] el : list) {
+	public boolean openBundle(File f) {
 
-				if (data.containsKey(el[1])) {
+		ScenarioBundle b;
 
-					Hashtable<Integer, Hashtable<Double, Double>> tmp = data
-							.get(el[1]);
+		try {
 
-					Hashtable<Double, Double> p;
+			b = ScenarioBundle.read(f);
 
-					if (tmp.containsKey(el[0])) {
+		} catch (IOException e) {
 
-						p = tmp.get(el[0]);
-						p.put(Double.valueOf(el[2]), Double.valueOf(el[3]));
+			System.out.println("Error: " + e.getMessage());
+			return false;
 
-					} else {
+		}
 
-						p = new Hashtable<Double, Double>();
-						p.put(Double.valueOf(el[2]), Double.valueOf(el[3]));
-					}
+		// layout
 
-					tmp.put(Integer.valueOf(el[0]), p);
-					data.put(el[1], tmp);
+		numberCells = b.numberCells;
+		deltaL = b.deltaL;
+		alpha = b.alpha;
+		beta = b.beta;
 
-				} else {
+		sensorIds = b.sensorIds;
 
-					Hashtable<Integer, Hashtable<Double, Double>> tmp = new Hashtable<Integer, Hashtable<Double, Double>>();
+		network = new Network(numberCells);
 
-					Hashtable<Double, Double> p = new Hashtable<Double, Double>();
-					p.put(Double.valueOf(el[2]), Double.valueOf(el[3]));
+		population = 0.0;
+		sortedCells = null;
+		activeValid = false;
 
-					tmp.put(Integer.valueOf(el[0]), p);
-					data.put(el[1], tmp);
-				}
+		float[] coordinates = new float[8];
 
-			}
+		for (int c = 0; c < numberCells; c++) {
 
-		} catch (Exception e) {
+			System.arraycopy(b.coordinates, 8 * c, coordinates, 0, 8);
 
-			valid = false;
+			network.addCell(b.cid[c], b.zone[c], b.shape[c], b.area[c],
+					b.kc[c], b.delta[c], coordinates, null);
 		}
 
-		return valid;
-	}
+		network.compile(b.neighborStart, b.neighbors);
 
-	/**
-	 * adds all the parameters that couldn't be determined before
-	 */
+		this.timestep = 0;
 
-	public void addMissing() {
+		bounds = b.bounds;
 
-		sources = new String[numberGroups];
-		sinks = new String[numberGroups];
+		if (!resolveSensors()) {
+			return false;
+		}
 
-		groups = new PhysicalGroup[numberGroups];
+		// demand
 
-		int index = 0;
+		startingTime = b.startingTime;
+		numberGroups = b.routes.length;
 
-		for (String id : demand.keySet()) {
+		groups = new PhysicalGroup[numberGroups];
+		prunedMass = new double[numberGroups];
+		sources = b.sources;
+		sinks = b.sinks;
 
-			PhysicalGroup g = demand.get(id);
-			String[] route = id.split("-");
-			g.setRouteArray(route);
+		for (int i = 0; i < numberGroups; i++) {
 
-			groups[index] = g;
-			sources[index] = groups[index].getSource();
-			sinks[index] = groups[index].getSink();
+			String id = b.routes[i];
 
-			index++;
-		}
+			PhysicalGroup g = new PhysicalGroup(id,
+					sources[i] >= 0 ? network.cid[sources[i]] : "",
+					sinks[i] >= 0 ? network.cid[sinks[i]] : "",
+					id.split("-"), b.repartitions[i]);
 
-		for (int i = 0; i < groups.length; i++) {
-			String route = groups[i].getRoute();
-			routeTextOutput.put(route, new ArrayList<String>());
+			demand.put(id, g);
+			groups[i] = g;
 		}
 
 		this.go = true;
+
+		// static floor fields
+
+		routeField = b.routeField;
+		fields = b.fields;
+
+		for (RouteGraph field : fields) {
+			field.computeWeights(network, alpha);
+		}
+
+		allocateTurningCaches();
+
+		return true;
 	}
 
 	/**
@@ -1341,44 +2014,16 @@ public class Board extends Observable {
 
 		this.setBeta(newX[4]);
 
-		Enumeration<String> e = cells.keys();
-
 		// the order is vf, gamma, kc
 
-		while (e.hasMoreElements()) {
-
-			Cell ce = cells.get(e.nextElement());
-
-			ce.setMaxCapacity(newX[2] * ce.getArea());
-			ce.setShape(newX[1]);
+		for (int c = 0; c < numberCells; c++) {
 
-			double x0 = (ce.getShape() * ce.getArea())
-					/ (0.3 * ce.getMaxCapacity());
+			network.maxCapacity[c] = newX[2] * network.area[c];
+			network.shape[c] = newX[1];
 
 			// n_0 = 0.3 N is a heuristic choice
-			double xN = (ce.getShape() * ce.getArea()) / ce.getMaxCapacity();
+			network.computeFundamentalDiagram(c, 0.3);
 
-			double a = 0.5 * (1 - x0) * Math.exp(xN - x0);
-			double b = Math.pow(x0, 2) * Math.exp(xN - x0);
-			double c = 1
-					- (1 + x0 + (0.5 * Math.pow(x0, 2)) + (0.5 * Math
-							.pow(x0, 3))) * Math.exp(xN - x0);
-
-			double xopt = (-b + Math.sqrt(Math.pow(b, 2) - (4 * a * c)))
-					/ (2 * a);
-
-			// neglecting negative root
-
-			double nopt = (newX[1] * ce.getArea()) / xopt;
-
-			double qopt = nopt
-					* (1 - Math.exp(-ce.getShape() * ce.getArea()
-							* ((1 / nopt) - (1 / ce.getMaxCapacity()))));
-
-			ce.setNmax(nopt);
-			ce.setQmax(qopt);
-
-			cells.put(ce.getCid(), ce);
 		}
 	}
 
@@ -1410,199 +2055,235 @@ public class Board extends Observable {
 
 	};
 
-	public void printTimestep() {
-
-		ArrayList<String> l = new ArrayList<String>(cells.keySet());
-		double result = 0;
-		Collections.sort(l, cidComparator);
-		String s = "";
-
-		for (String a : l) {
+	/**
+	 * returns the cell indices ordered by cell id. The order is computed once
+	 * per layout and must not be modified.
+	 */
 
-			Cell c = cells.get(a);
-			s = s.concat(c.getCid() + " = ");
-			s = s.concat(String.valueOf(c.getNumberPeople()));
-			s = s.concat(" ");
-			result += c.getNumberPeople();
+	private int[] sortedCells() {
 
+		if (sortedCells != null) {
+			return sortedCells;
 		}
 
-		System.out.println(s);
-		System.out.println(result + " " + timestep);
-	}
-
-	/**
-	 * write the output text file containing a snapshot of the density in every
-	 * cell at each timestep
-	 */
+		// the upper case ids are computed once instead of at each comparison
 
-	public void writeSpaceTime() {
+		final String[] ids = new String[numberCells];
+		Integer[] l = new Integer[numberCells];
 
-		try {
+		for (int c = 0; c < numberCells; c++) {
+			ids[c] = network.cid[c].toUpperCase();
+			l[c] = c;
+		}
 
-			File dir = new File("output/routes/");
+		Arrays.sort(l, new Comparator<Integer>() {
 
-			dir.mkdirs();
+			public int compare(Integer c1, Integer c2) {
 
-			PrintWriter out = new PrintWriter("output/spaceTime.txt");
+				String s1 = ids[c1];
+				String s2 = ids[c2];
 
-			for (String s : textOutput) {
-				out.println(s);
-			}
+				if (s1.length() != s2.length()) {
+					return s1.length() < s2.length() ? -1 : 1;
+				}
 
-			out.close();
+				return s1.compareTo(s2);
 
-			for (int i = 0; i < groups.length; i++) {
+			}
 
-				String route = groups[i].getRoute();
+		});
 
-				ArrayList<String> tmp = routeTextOutput.get(route);
+		sortedCells = new int[numberCells];
 
-				PrintWriter outGroup = new PrintWriter("output/routes/" + route
-						+ ".txt");
+		for (int c = 0; c < numberCells; c++) {
+			sortedCells[c] = l[c];
+		}
 
-				for (String s : tmp) {
-					outGroup.println(s);
+		return sortedCells;
+	}
 
-				}
+	public void printTimestep() {
 
-				outGroup.close();
-			}
+		int[] l = sortedCells();
+		double result = 0;
+		String s = "";
 
-		} catch (FileNotFoundException e) {
+		for (int c : l) {
 
-			e.printStackTrace();
+			s = s.concat(network.cid[c] + " = ");
+			s = s.concat(String.valueOf(network.numberPeople[c]));
+			s = s.concat(" ");
+			result += network.numberPeople[c];
 
 		}
+
+		System.out.println(s);
+		System.out.println(result + " " + timestep);
 	}
 
 	/**
-	 * writes two files : a file with the mean travel time of each group and one
-	 * with the distribution of the travel times with their weight
+	 * finishes writing the space time output, which contains a snapshot of
+	 * the density in every cell at each timestep (see updateText())
 	 */
-	public void writeSimulation() {
 
-		ArrayList<String> listTT = new ArrayList<String>();
+	public void writeSpaceTime() {
 
-		ArrayList<String> listTTD = new ArrayList<String>();
+		for (FilteredOutput o : outputs) {
 
-		for (int i = 0; i < groups.length; i++) {
+			try {
 
-			Hashtable<Integer, ArrayList<String>> s = groups[i].getTT();
+				o.close();
 
-			String route = groups[i].getRoute();
+			} catch (IOException e) {
 
-			for (Integer interval : s.keySet()) {
+				e.printStackTrace();
 
-				ArrayList<String> si = s.get(interval);
+			}
+		}
+	}
 
-				double mean = 0.0;
-				double coef = 0.0;
+	/**
+	 * writes the travel time files : a file with the mean travel time of each
+	 * group, one with the distribution of the travel times with their weight
+	 * and one with the mean, the variance, the median and the 90th percentile
+	 * of the travel time of each group, and, if residues are pruned, a file
+	 * with the number of people removed from each route
+	 */
+	public void writeSimulation() {
 
-				for (String c : si) {
+		try {
 
-					double t = Double.valueOf(c.split("/")[0]);
-					double w = Double.valueOf(c.split("/")[1]);
+			File dir = new File("output/");
 
-					String s1 = "";
+			dir.mkdirs();
 
-					s1 = s1.concat(Integer.toString(interval) + ",");
-					s1 = s1.concat(route + ",");
-					s1 = s1.concat(Double.toString(t) + ",");
-					s1 = s1.concat(Double.toString(w) + "\n");
+			BufferedWriter CSVFileTT = new BufferedWriter(new FileWriter(
+					new File("output/TT_avg.txt")));
 
-					listTTD.add(s1);
+			BufferedWriter CSVFileTTD = new BufferedWriter(new FileWriter(
+					new File("output/TT_dist.txt")));
 
-					mean += w * t;
-					coef += w;
+			BufferedWriter CSVFileStats = new BufferedWriter(new FileWriter(
+					new File("output/TT_stats.txt")));
 
-				}
+			try {
 
-				mean /= coef;
+				for (int i = 0; i < groups.length; i++) {
 
-				String s1 = "";
+					TravelTimes tt = groups[i].getTravelTimes();
 
-				s1 = s1.concat(Integer.toString(interval) + ",");
-				s1 = s1.concat(route + ",");
-				s1 = s1.concat(Double.toString(mean) + ",");
-				s1 = s1.concat(Double.toString(coef) + "\n");
+					String route = groups[i].getRoute();
 
-				listTT.add(s1);
+					int n = tt.getNumberIntervals();
 
-			}
+					for (int interval = 0; interval < n; interval++) {
+
+						if (!tt.hasArrivals(interval)) {
+							continue;
+						}
 
-			BufferedWriter CSVFileTT;
+						String prefix = interval + "," + route + ",";
 
-			BufferedWriter CSVFileTTD;
+						double[] histogram = tt.getHistogram(interval);
 
-			try {
+						for (int k = 0; k < histogram.length; k++) {
 
-				File dir = new File("output/");
+							if (histogram[k] > 0.0) {
 
-				dir.mkdirs();
+								CSVFileTTD.write(prefix
+										+ (double) (tt.getFirst(interval) + k)
+										+ "," + histogram[k] + "\n");
 
-				CSVFileTT = new BufferedWriter(new FileWriter(new File(
-						"output/TT_avg.txt")));
+							}
+						}
 
-				CSVFileTTD = new BufferedWriter(new FileWriter(new File(
-						"output/TT_dist.txt")));
+						CSVFileTT.write(prefix + tt.getMean(interval) + ","
+								+ tt.getSize(interval) + "\n");
 
-				for (String si : listTT) {
-					CSVFileTT.write(si);
-				}
+						CSVFileStats.write(prefix + tt.getMean(interval) + ","
+								+ tt.getVariance(interval) + ","
+								+ tt.getQuantile(interval, 0.5) + ","
+								+ tt.getQuantile(interval, 0.9) + ","
+								+ tt.getSize(interval) + "\n");
 
-				for (String si : listTTD) {
-					CSVFileTTD.write(si);
+					}
 				}
 
+			} finally {
+
 				CSVFileTT.close();
 
 				CSVFileTTD.close();
 
-			} catch (Exception e) {
-
-				e.printStackTrace();
+				CSVFileStats.close();
 
 			}
 
+		} catch (IOException e) {
+
+			e.printStackTrace();
+
 		}
 
-		if (!sensors.isEmpty()) {
+		if (pruningThreshold > 0.0) {
+
+			try {
+
+				BufferedWriter CSVFilePruned = new BufferedWriter(
+						new FileWriter(new File("output/pruned.txt")));
 
-			for (String cid : sensors.keySet()) {
+				try {
 
-				ArrayList<String> listSensor = new ArrayList<String>();
-				Hashtable<String, Sensor> tmp = sensors.get(cid);
+					for (int i = 0; i < groups.length; i++) {
+						CSVFilePruned.write(groups[i].getRoute() + ","
+								+ prunedMass[i] + "\n");
+					}
 
-				for (String sid : tmp.keySet()) {
+				} finally {
 
-					listSensor.add(tmp.get(sid).getString());
+					CSVFilePruned.close();
 
 				}
 
-				BufferedWriter CSVFileSensor;
+			} catch (IOException e) {
 
-				try {
+				e.printStackTrace();
+
+			}
+		}
 
-					CSVFileSensor = new BufferedWriter(new FileWriter(new File(
-							"output/" + cid + ".txt")));
+		if (sensors == null) {
+			return;
+		}
 
-					File dir = new File("output/");
+		String[] routes = new String[groups.length];
 
-					dir.mkdirs();
+		for (int i = 0; i < groups.length; i++) {
+			routes[i] = groups[i].getRoute();
+		}
 
-					for (String s : listSensor) {
-						CSVFileSensor.write(s);
-					}
+		for (Sensor sensor : sensors) {
 
-					CSVFileSensor.close();
+			if (sensor == null) {
+				continue;
+			}
 
-				} catch (Exception e) {
+			try {
 
-					e.printStackTrace();
+				BufferedWriter CSVFileSensor = new BufferedWriter(
+						new FileWriter(new File("output/" + sensor.getId()
+								+ ".txt")));
 
+				try {
+					sensor.write(CSVFileSensor, routes);
+				} finally {
+					CSVFileSensor.close();
 				}
 
+			} catch (IOException e) {
+
+				e.printStackTrace();
+
 			}
 		}
 	}
@@ -1649,6 +2330,103 @@ public class Board extends Observable {
 		return data;
 	}
 
+	/**
+	 * sets the number of threads used to compute the time steps. With one
+	 * thread, the steps are computed on the simulation thread. The results do
+	 * not depend on the number of threads.
+	 */
+	public void setParallelism(int threads) {
+
+		if (pool != null) {
+			pool.shutdown();
+		}
+
+		if (threads > 1) {
+			pool = new ForkJoinPool(threads);
+		} else {
+			pool = null;
+		}
+	}
+
+	public int getOutputCapacity() {
+		return outputCapacity;
+	}
+
+	/**
+	 * sets the number of time steps the simulation can compute ahead of the
+	 * outputs written in a separate thread (AsyncOutput) before waiting for
+	 * them (16 by default). A larger capacity absorbs slower writes at the
+	 * cost of one copy of the state per step. Applies to the outputs already
+	 * added; must be called before the simulation starts.
+	 */
+	public void setOutputCapacity(int capacity) {
+
+		if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"output capacity must be at least 1");
+		}
+
+		this.outputCapacity = capacity;
+
+		for (FilteredOutput o : outputs) {
+			if (o.getSink() instanceof AsyncOutput) {
+				((AsyncOutput) o.getSink()).setCapacity(capacity);
+			}
+		}
+
+	}
+
+	/**
+	 * returns the first space time output, null if there is none
+	 */
+	public OutputSink getOutput() {
+		return outputs.isEmpty() ? null : outputs.get(0).getSink();
+	}
+
+	/**
+	 * sets the destination of the space time output (text files in output/,
+	 * written in a separate thread by default), which receives every time
+	 * step of every quantity. null disables the output.
+	 */
+	public void setOutput(OutputSink output) {
+
+		this.outputs.clear();
+		this.outputOpened = false;
+
+		if (output != null) {
+			addOutput(output, new OutputPolicy());
+		}
+
+	}
+
+	/**
+	 * adds a space time output, which receives the quantities, time steps and
+	 * cells selected by the policy. Must be called before the simulation
+	 * starts.
+	 */
+	public void addOutput(OutputSink output, OutputPolicy policy) {
+
+		this.outputs.add(new FilteredOutput(output, policy));
+		this.outputOpened = false;
+
+	}
+
+	public Pacing getPacing() {
+		return pacing;
+	}
+
+	/**
+	 * sets the policy deciding how fast the simulation runs (unthrottled by
+	 * default)
+	 */
+	public void setPacing(Pacing pacing) {
+		this.pacing = pacing;
+	}
+
+	public Network getNetwork() {
+		return network;
+	}
+
 	public float[] getBounds() {
 		return bounds.clone();
 	}
@@ -1662,7 +2440,72 @@ public class Board extends Observable {
 	}
 
 	public void setAlpha(double alpha) {
+
 		this.alpha = alpha;
+
+		if (fields != null) {
+			for (RouteGraph field : fields) {
+				field.computeWeights(network, alpha);
+			}
+		}
+	}
+
+	public int getCohortLength() {
+		return cohortLength;
+	}
+
+	/**
+	 * merges the people departing on a route during cohortLength consecutive
+	 * time steps into one logical group (1 by default: one group per
+	 * departure time step), which bounds the number of groups in each cell
+	 * on long simulations. The number of people is not changed, but the
+	 * travel times and the sensor logs are given by cohort: the departure
+	 * time of a cohort is the mean departure time of its people. Must be
+	 * called before the simulation starts.
+	 */
+	public void setCohortLength(int cohortLength) {
+
+		if (cohortLength < 1) {
+			throw new IllegalArgumentException(
+					"cohort length must be at least 1");
+		}
+
+		this.cohortLength = cohortLength;
+
+	}
+
+	public double getPruningThreshold() {
+		return pruningThreshold;
+	}
+
+	/**
+	 * removes at the end of each time step the logical groups of fewer than
+	 * threshold people (0 by default: no group is removed). Their people are
+	 * merged into the largest group of the same route in the cell, or moved to
+	 * the downstream neighbor on the route if they are this group, or removed
+	 * if the cell has no such neighbor; the people who have reached the sink
+	 * of their route are kept. The people removed are counted in the
+	 * pruned mass of their route (see getPrunedMass()), which is written to
+	 * output/pruned.txt, and a warning is printed at the end of the
+	 * simulation if it exceeds 0.1% of the people of a route. Must be called
+	 * before the simulation starts.
+	 */
+	public void setPruningThreshold(double threshold) {
+
+		if (threshold < 0.0) {
+			throw new IllegalArgumentException(
+					"pruning threshold must not be negative");
+		}
+
+		this.pruningThreshold = threshold;
+
+	}
+
+	/**
+	 * returns the number of people of each route removed by the pruning
+	 */
+	public double[] getPrunedMass() {
+		return prunedMass;
 	}
 
 	public double getBeta() {
@@ -0,0 +1,126 @@
+package model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loop over a range of cells that can be split into chunks executed in
+ * parallel on a ForkJoinPool. The body of the loop must only write to the
+ * state of the cells (or edges) of the chunk it is given, so that the result
+ * does not depend on the number of threads or on the order in which the chunks
+ * are executed.
+ *
+ * The tasks of the chunks are kept and reinitialized at each execution, so
+ * that a loop executed at every time step does not allocate. A loop must not
+ * be executed by two threads at the same time.
+ */
+public abstract class CellLoop {
+
+	// maximal number of chunks per thread of the pool, so that the threads
+	// that finish first can steal the remaining chunks
+	private static final int ChunksPerThread = 4;
+
+	private Chunk[] chunks;
+	private Fork fork;
+
+	/**
+	 * body of the loop for the cells from (inclusive) to to (exclusive)
+	 */
+	protected abstract void run(int from, int to);
+
+	/**
+	 * executes the loop over the cells 0 to n - 1. If pool is null, the loop
+	 * is executed sequentially on the calling thread.
+	 *
+	 * @param grain
+	 *            - number of cells under which a chunk is not split anymore
+	 */
+	public void execute(ForkJoinPool pool, int n, int grain) {
+
+		if (pool == null || n <= grain) {
+
+			run(0, n);
+
+		} else {
+
+			int maxChunks = ChunksPerThread * pool.getParallelism();
+
+			if (chunks == null || chunks.length != maxChunks) {
+
+				chunks = new Chunk[maxChunks];
+				for (int i = 0; i < maxChunks; i++) {
+					chunks[i] = new Chunk(this);
+				}
+
+				fork = new Fork(chunks);
+			}
+
+			int k = (int) Math.min((n + (long) grain - 1) / grain, maxChunks);
+
+			for (int i = 0; i < k; i++) {
+				chunks[i].reinitialize();
+				chunks[i].from = (int) ((long) n * i / k);
+				chunks[i].to = (int) ((long) n * (i + 1) / k);
+			}
+
+			fork.reinitialize();
+			fork.numberChunks = k;
+
+			pool.invoke(fork);
+
+		}
+
+	}
+
+	/**
+	 * executes the first chunks in parallel
+	 */
+	private static class Fork extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Chunk[] chunks;
+		int numberChunks;
+
+		Fork(Chunk[] chunks) {
+
+			this.chunks = chunks;
+
+		}
+
+		protected void compute() {
+
+			for (int i = 1; i < numberChunks; i++) {
+				chunks[i].fork();
+			}
+
+			chunks[0].invoke();
+
+			for (int i = numberChunks - 1; i > 0; i--) {
+				chunks[i].join(); // in the reverse order of the forks
+			}
+		}
+	}
+
+	private static class Chunk extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final CellLoop loop;
+		int from;
+		int to;
+
+		Chunk(CellLoop loop) {
+
+			this.loop = loop;
+
+		}
+
+		protected void compute() {
+
+			loop.run(from, to);
+
+		}
+	}
+
+}
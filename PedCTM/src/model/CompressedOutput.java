@@ -0,0 +1,182 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes the space time output in a single compressed file
+ * (spaceTime.pctz), read back by CompressedOutputReader. Most cells are empty
+ * or change slowly from one step to the next, so each value is stored as the
+ * XOR of its bits with the bits of the same value at the previous step: a
+ * value that did not change becomes 0 and a value that changed a little has
+ * its leading bytes at 0. The result is compressed with a Deflater.
+ *
+ * After a magic number and a format version, the compressed stream contains
+ * the length of the cells, the duration of a time step, the ids of the cells
+ * in the order of the values, the ids of the routes and the static floor
+ * field of each route in each cell. It is followed by one record per time
+ * step: true, the timestep, the encoded row of the number of people in each
+ * cell and the encoded row of each route. The stream ends with false. All
+ * numbers are stored in big endian order, arrays are preceded by their length
+ * and strings are stored in UTF-8.
+ *
+ * The file can only be read sequentially; use BinaryOutput for random access.
+ */
+public class CompressedOutput implements OutputSink {
+
+	static final int Magic = 0x5043545a; // "PCTZ"
+
+	static final int Version = 1;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int BufferSize = 1 << 16;
+
+	private final File file;
+
+	private final int level;
+
+	private Deflater deflater;
+
+	private DataOutputStream out;
+
+	private long[] previous; // bits of the values at the previous step
+
+	private byte[] row; // encoded row
+
+	/**
+	 * @param directory
+	 *            - directory in which the file is written (e.g. "output/")
+	 * @param level
+	 *            - compression level of the Deflater (1: fastest, 9: smallest)
+	 */
+	public CompressedOutput(String directory, int level) {
+
+		this.file = new File(directory, "spaceTime.pctz");
+		this.level = level;
+
+	}
+
+	public void open(String[] cells, String[] routes, double deltaL,
+			double timeInterval, double[][] potentials) throws IOException {
+
+		file.getAbsoluteFile().getParentFile().mkdirs();
+
+		FileOutputStream f = new FileOutputStream(file);
+
+		DataOutputStream header = new DataOutputStream(f);
+		header.writeInt(Magic);
+		header.writeInt(Version);
+
+		deflater = new Deflater(level);
+
+		out = new DataOutputStream(new BufferedOutputStream(
+				new DeflaterOutputStream(f, deflater, BufferSize), BufferSize));
+
+		out.writeDouble(deltaL);
+		out.writeDouble(timeInterval);
+
+		writeStrings(cells);
+		writeStrings(routes);
+
+		for (double[] p : potentials) {
+			out.writeInt(p.length);
+			for (double v : p) {
+				out.writeDouble(v);
+			}
+		}
+
+		// the first step is encoded against 0.0, whose bits are 0
+
+		previous = new long[(routes.length + 1) * cells.length];
+
+		row = new byte[8 * cells.length];
+
+	}
+
+	public void write(int timestep, double[] people, double[][] routePeople)
+			throws IOException {
+
+		out.writeBoolean(true);
+		out.writeInt(timestep);
+
+		int p = writeRow(people, 0);
+
+		for (double[] r : routePeople) {
+			p = writeRow(r, p);
+		}
+
+	}
+
+	public void close() throws IOException {
+
+		if (out == null) {
+			return;
+		}
+
+		try {
+
+			out.writeBoolean(false);
+
+		} finally {
+
+			out.close();
+			deflater.end();
+
+			out = null;
+			previous = null;
+			row = null;
+
+		}
+
+	}
+
+	/**
+	 * writes the values XORed with the previous ones, starting at index p of
+	 * previous
+	 *
+	 * @return index of previous after the row
+	 */
+	private int writeRow(double[] values, int p) throws IOException {
+
+		int b = 0;
+
+		for (double v : values) {
+
+			long bits = Double.doubleToRawLongBits(v);
+			long x = bits ^ previous[p];
+
+			previous[p++] = bits;
+
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				row[b++] = (byte) (x >>> shift);
+			}
+		}
+
+		out.write(row, 0, b);
+
+		return p;
+
+	}
+
+	private void writeStrings(String[] a) throws IOException {
+
+		out.writeInt(a.length);
+
+		for (String s : a) {
+
+			byte[] b = s.getBytes(UTF8);
+
+			out.writeInt(b.length);
+			out.write(b);
+		}
+
+	}
+
+}
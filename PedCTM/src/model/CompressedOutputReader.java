@@ -0,0 +1,212 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads a space time output written by CompressedOutput, one time step after
+ * the other. next() decodes the following time step, whose values are then
+ * available through getPeople() and getRoutePeople(). The arrays are reused
+ * by the next step.
+ */
+public class CompressedOutputReader {
+
+	private static final int BufferSize = 1 << 16;
+
+	private final String name;
+
+	private final Inflater inflater;
+
+	private final DataInputStream in;
+
+	private final double deltaL;
+	private final double timeInterval;
+
+	private final String[] cells;
+	private final String[] routes;
+	private final double[][] potentials;
+
+	private int timestep;
+	private final double[] people;
+	private final double[][] routePeople;
+
+	private boolean ended;
+
+	/**
+	 * opens an output file and reads its header
+	 *
+	 * @throws IOException
+	 *             - if the file cannot be read or is not an output of the
+	 *             current version
+	 */
+	public CompressedOutputReader(File f) throws IOException {
+
+		name = f.getName();
+
+		FileInputStream file = new FileInputStream(f);
+
+		inflater = new Inflater();
+
+		try {
+
+			DataInputStream header = new DataInputStream(file);
+
+			if (header.readInt() != CompressedOutput.Magic) {
+				throw new IOException(name + " is not a compressed output");
+			}
+
+			if (header.readInt() != CompressedOutput.Version) {
+				throw new IOException(name + " was written with another version");
+			}
+
+			in = new DataInputStream(new BufferedInputStream(
+					new InflaterInputStream(file, inflater, BufferSize),
+					BufferSize));
+
+			deltaL = in.readDouble();
+			timeInterval = in.readDouble();
+
+			cells = readStrings();
+			routes = readStrings();
+
+			potentials = new double[routes.length][];
+			for (int i = 0; i < routes.length; i++) {
+				potentials[i] = new double[in.readInt()];
+				for (int c = 0; c < potentials[i].length; c++) {
+					potentials[i][c] = in.readDouble();
+				}
+			}
+
+		} catch (IOException e) {
+
+			file.close();
+			inflater.end();
+
+			if (e instanceof EOFException) {
+				throw new IOException(name + " is truncated", e);
+			}
+
+			throw e;
+
+		}
+
+		people = new double[cells.length];
+		routePeople = new double[routes.length][cells.length];
+
+	}
+
+	/**
+	 * decodes the next time step
+	 *
+	 * @return false if there is no more time step
+	 */
+	public boolean next() throws IOException {
+
+		if (ended) {
+			return false;
+		}
+
+		try {
+
+			if (!in.readBoolean()) {
+				ended = true;
+				return false;
+			}
+
+			timestep = in.readInt();
+
+			readRow(people);
+
+			for (double[] r : routePeople) {
+				readRow(r);
+			}
+
+			return true;
+
+		} catch (EOFException e) {
+			throw new IOException(name + " is truncated", e);
+		}
+
+	}
+
+	public void close() throws IOException {
+
+		in.close();
+		inflater.end();
+
+	}
+
+	/**
+	 * decodes a row from the XOR with the row of the previous step, which is
+	 * in values
+	 */
+	private void readRow(double[] values) throws IOException {
+
+		for (int c = 0; c < values.length; c++) {
+			values[c] = Double.longBitsToDouble(in.readLong()
+					^ Double.doubleToRawLongBits(values[c]));
+		}
+
+	}
+
+	private String[] readStrings() throws IOException {
+
+		String[] a = new String[in.readInt()];
+
+		for (int i = 0; i < a.length; i++) {
+
+			byte[] b = new byte[in.readInt()];
+			in.readFully(b);
+
+			a[i] = new String(b, CompressedOutput.UTF8);
+		}
+
+		return a;
+
+	}
+
+	public int getTimestep() {
+		return timestep;
+	}
+
+	/**
+	 * number of people in each cell at the current time step
+	 */
+	public double[] getPeople() {
+		return people;
+	}
+
+	/**
+	 * number of people of each route in each cell at the current time step
+	 */
+	public double[][] getRoutePeople() {
+		return routePeople;
+	}
+
+	public String[] getCells() {
+		return cells;
+	}
+
+	public String[] getRoutes() {
+		return routes;
+	}
+
+	public double[][] getPotentials() {
+		return potentials;
+	}
+
+	public double getDeltaL() {
+		return deltaL;
+	}
+
+	public double getTimeInterval() {
+		return timeInterval;
+	}
+
+}
@@ -0,0 +1,442 @@
+package model;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Applies an output policy to the state of each time step before passing it
+ * to a sink: keeps the selected cells, the selected time steps and the
+ * requested quantities, and averages the values over the stride if needed.
+ * Used by the board for each of its outputs.
+ */
+class FilteredOutput {
+
+	private final OutputSink sink;
+
+	private final OutputPolicy policy;
+
+	private int[] selected; // selected cells, null for all the cells
+	private int[] position; // position of each cell in selected, -1 if it is
+							// not selected
+
+	private int numberRoutes; // number of written routes
+
+	// state passed to the sink
+
+	private double[] people;
+	private double[][] routePeople; // for a dense sink
+	private int[][] routeCells; // for a sparse sink
+	private double[][] routeValues;
+	private int[] routeCounts;
+
+	// sums of the current averaging period. For a sparse sink, the sums of
+	// each route are kept sparse (cells where the route was present during
+	// the period, in increasing order), so that an average costs the number
+	// of cells reached by the routes and not routes x cells.
+
+	private double[] sumPeople;
+	private double[][] sumRoutes; // for a dense sink
+	private int[][] sumCells; // for a sparse sink
+	private double[][] sumValues;
+	private int[] sumCounts;
+	private int[] mergeCells; // scratch space of the merges
+	private double[] mergeValues;
+	private int numberSummed;
+	private int lastTimestep; // last time step added to the sums
+
+	FilteredOutput(OutputSink sink, OutputPolicy policy) {
+
+		this.sink = sink;
+		this.policy = policy;
+
+	}
+
+	OutputSink getSink() {
+		return sink;
+	}
+
+	OutputPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * returns true if the number of people of each route is used at the time
+	 * step
+	 */
+	boolean needsRoutes(int timestep) {
+
+		return policy.hasRoutes() && policy.isUsed(timestep);
+
+	}
+
+	/**
+	 * opens the sink with the selected cells
+	 *
+	 * @param potentials
+	 *            - static floor field of each route in each cell, null if no
+	 *            output requests them
+	 */
+	void open(Network network, String[] routes, double deltaL,
+			double timeInterval, double[][] potentials) throws IOException {
+
+		selected = policy.selectCells(network);
+
+		int numberCells = network.getNumberCells();
+		int n = selected == null ? numberCells : selected.length;
+
+		String[] cells = network.cid.clone();
+
+		if (selected != null) {
+
+			position = new int[numberCells];
+			Arrays.fill(position, -1);
+
+			cells = new String[n];
+
+			for (int i = 0; i < n; i++) {
+				cells[i] = network.cid[selected[i]];
+				position[selected[i]] = i;
+			}
+		}
+
+		numberRoutes = policy.hasRoutes() ? routes.length : 0;
+
+		double[][] written = new double[numberRoutes][];
+
+		for (int i = 0; i < numberRoutes; i++) {
+			written[i] = policy.hasPotentials() ? select(potentials[i])
+					: new double[0];
+		}
+
+		sink.open(cells, policy.hasRoutes() ? routes : new String[0], deltaL,
+				timeInterval, written);
+
+		if (selected != null || policy.isAverage()) {
+			people = new double[n];
+		}
+
+		if (sink instanceof SparseOutputSink) {
+
+			routeCells = new int[numberRoutes][16];
+			routeValues = new double[numberRoutes][16];
+			routeCounts = new int[numberRoutes];
+
+		} else {
+
+			routePeople = new double[numberRoutes][n];
+
+		}
+
+		if (policy.isAverage()) {
+
+			sumPeople = new double[n];
+
+			if (routeCounts != null) {
+
+				sumCells = new int[numberRoutes][16];
+				sumValues = new double[numberRoutes][16];
+				sumCounts = new int[numberRoutes];
+				mergeCells = new int[16];
+				mergeValues = new double[16];
+
+			} else {
+
+				sumRoutes = new double[numberRoutes][n];
+
+			}
+
+			numberSummed = 0;
+		}
+
+	}
+
+	/**
+	 * passes the state of a time step to the sink if the policy uses it
+	 *
+	 * @param totalPeople
+	 *            - number of people in each cell
+	 * @param cells
+	 *            - for each route, cells where it is present in increasing
+	 *            order, or null if no output needs the routes at this step
+	 * @param values
+	 *            - for each route, number of people of the route in these
+	 *            cells
+	 * @param counts
+	 *            - for each route, number of cells where it is present
+	 */
+	void write(int timestep, double[] totalPeople, int[][] cells,
+			double[][] values, int[] counts) throws IOException {
+
+		if (!policy.isUsed(timestep)) {
+			return;
+		}
+
+		if (policy.isAverage()) {
+
+			accumulate(totalPeople, cells, values, counts);
+
+			lastTimestep = timestep;
+
+			if (policy.isWritten(timestep)) {
+				writeAverage(timestep);
+			}
+
+			return;
+		}
+
+		double[] p = totalPeople;
+
+		if (selected != null) {
+			p = people;
+			for (int i = 0; i < selected.length; i++) {
+				p[i] = totalPeople[selected[i]];
+			}
+		}
+
+		if (routeCounts != null) {
+
+			if (selected == null) {
+
+				// no copy, the sink does not keep the arrays
+
+				((SparseOutputSink) sink).writeSparse(timestep, p, cells,
+						values, numberRoutes == 0 ? routeCounts : counts);
+
+				return;
+			}
+
+			for (int r = 0; r < numberRoutes; r++) {
+
+				routeCounts[r] = 0;
+
+				for (int k = 0; k < counts[r]; k++) {
+
+					int i = position[cells[r][k]];
+
+					if (i >= 0) {
+						addRouteValue(r, i, values[r][k]);
+					}
+				}
+			}
+
+			((SparseOutputSink) sink).writeSparse(timestep, p, routeCells,
+					routeValues, routeCounts);
+
+		} else {
+
+			for (int r = 0; r < numberRoutes; r++) {
+
+				Arrays.fill(routePeople[r], 0.0);
+
+				for (int k = 0; k < counts[r]; k++) {
+
+					int i = selected == null ? cells[r][k]
+							: position[cells[r][k]];
+
+					if (i >= 0) {
+						routePeople[r][i] = values[r][k];
+					}
+				}
+			}
+
+			sink.write(timestep, p, routePeople);
+
+		}
+
+	}
+
+	/**
+	 * writes the means of the last averaging period if it is incomplete (the
+	 * simulation or the window ended before its last step), then closes the
+	 * sink
+	 */
+	void close() throws IOException {
+
+		try {
+
+			if (numberSummed > 0) {
+				writeAverage(lastTimestep);
+			}
+
+		} finally {
+
+			sink.close();
+
+		}
+
+	}
+
+	/**
+	 * adds the state of a time step to the sums of the averaging period
+	 */
+	private void accumulate(double[] totalPeople, int[][] cells,
+			double[][] values, int[] counts) {
+
+		for (int i = 0; i < sumPeople.length; i++) {
+			sumPeople[i] += totalPeople[selected == null ? i : selected[i]];
+		}
+
+		for (int r = 0; r < numberRoutes; r++) {
+
+			if (sumCounts != null) {
+
+				mergeRoute(r, cells[r], values[r], counts[r]);
+
+				continue;
+			}
+
+			for (int k = 0; k < counts[r]; k++) {
+
+				int i = selected == null ? cells[r][k] : position[cells[r][k]];
+
+				if (i >= 0) {
+					sumRoutes[r][i] += values[r][k];
+				}
+			}
+		}
+
+		numberSummed++;
+
+	}
+
+	/**
+	 * adds the values of a route at a time step to its sparse sums by merging
+	 * the two lists of cells, which are both in increasing order (the
+	 * selected cells are in increasing order, so their positions too)
+	 */
+	private void mergeRoute(int r, int[] cells, double[] values, int count) {
+
+		int[] c = sumCells[r];
+		double[] v = sumValues[r];
+		int n = sumCounts[r];
+
+		if (mergeCells.length < n + count) {
+			mergeCells = new int[Math.max(2 * mergeCells.length, n + count)];
+			mergeValues = new double[mergeCells.length];
+		}
+
+		int m = 0;
+		int j = 0;
+
+		for (int k = 0; k < count; k++) {
+
+			int i = selected == null ? cells[k] : position[cells[k]];
+
+			if (i < 0) {
+				continue;
+			}
+
+			while (j < n && c[j] < i) {
+				mergeCells[m] = c[j];
+				mergeValues[m++] = v[j++];
+			}
+
+			mergeCells[m] = i;
+
+			if (j < n && c[j] == i) {
+				mergeValues[m++] = v[j++] + values[k];
+			} else {
+				mergeValues[m++] = values[k];
+			}
+		}
+
+		while (j < n) {
+			mergeCells[m] = c[j];
+			mergeValues[m++] = v[j++];
+		}
+
+		// swaps the sums and the scratch space
+
+		sumCells[r] = mergeCells;
+		sumValues[r] = mergeValues;
+		sumCounts[r] = m;
+
+		mergeCells = c;
+		mergeValues = v;
+
+	}
+
+	/**
+	 * writes the means of the averaging period and starts a new one
+	 */
+	private void writeAverage(int timestep) throws IOException {
+
+		for (int i = 0; i < people.length; i++) {
+			people[i] = sumPeople[i] / numberSummed;
+		}
+
+		if (routeCounts != null) {
+
+			for (int r = 0; r < numberRoutes; r++) {
+
+				routeCounts[r] = 0;
+
+				for (int k = 0; k < sumCounts[r]; k++) {
+					if (sumValues[r][k] != 0.0) {
+						addRouteValue(r, sumCells[r][k], sumValues[r][k]
+								/ numberSummed);
+					}
+				}
+
+				sumCounts[r] = 0;
+			}
+
+			((SparseOutputSink) sink).writeSparse(timestep, people,
+					routeCells, routeValues, routeCounts);
+
+		} else {
+
+			for (int r = 0; r < numberRoutes; r++) {
+				for (int i = 0; i < people.length; i++) {
+					routePeople[r][i] = sumRoutes[r][i] / numberSummed;
+				}
+			}
+
+			sink.write(timestep, people, routePeople);
+
+		}
+
+		Arrays.fill(sumPeople, 0.0);
+
+		if (sumRoutes != null) {
+			for (double[] s : sumRoutes) {
+				Arrays.fill(s, 0.0);
+			}
+		}
+
+		numberSummed = 0;
+
+	}
+
+	private void addRouteValue(int r, int i, double v) {
+
+		int k = routeCounts[r];
+
+		if (k == routeCells[r].length) {
+			routeCells[r] = Arrays.copyOf(routeCells[r], 2 * k);
+			routeValues[r] = Arrays.copyOf(routeValues[r], 2 * k);
+		}
+
+		routeCells[r][k] = i;
+		routeValues[r][k] = v;
+		routeCounts[r] = k + 1;
+
+	}
+
+	private double[] select(double[] values) {
+
+		if (selected == null) {
+			return values;
+		}
+
+		double[] result = new double[selected.length];
+
+		for (int i = 0; i < selected.length; i++) {
+			result[i] = values[selected[i]];
+		}
+
+		return result;
+
+	}
+
+}
@@ -0,0 +1,77 @@
+package model;
+
+/**
+ * Flows projected along an edge during a time step: number of people of each
+ * logical group (see LogicalGroup.key) that the source cell sends towards its
+ * neighbor.
+ *
+ * The buffer of each edge is allocated once with the network and reset by
+ * clear() at the end of each step, so the steps do not allocate once every
+ * buffer has reached the largest number of groups sent along its edge. Each
+ * group is added at most once per step, so no lookup is needed.
+ */
+public class FlowBuffer {
+
+	private static final int InitialCapacity = 4;
+
+	private long[] keys;
+	private double[] people;
+	private int size;
+
+	public FlowBuffer() {
+
+		keys = new long[InitialCapacity];
+		people = new double[InitialCapacity];
+		size = 0;
+
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public long getKey(int i) {
+		return keys[i];
+	}
+
+	public double getPeople(int i) {
+		return people[i];
+	}
+
+	/**
+	 * appends the flow of a group
+	 */
+	public void add(long key, double n) {
+
+		if (size == keys.length) {
+
+			long[] k = new long[2 * keys.length];
+			double[] p = new double[2 * keys.length];
+
+			System.arraycopy(keys, 0, k, 0, size);
+			System.arraycopy(people, 0, p, 0, size);
+
+			keys = k;
+			people = p;
+		}
+
+		keys[size] = key;
+		people[size] = n;
+		size++;
+
+	}
+
+	/**
+	 * removes all the flows, keeping the arrays
+	 */
+	public void clear() {
+
+		size = 0;
+
+	}
+
+}
@@ -0,0 +1,69 @@
+package model;
+
+/**
+ * Limits the simulation to a target number of time steps per second. The
+ * target can be changed while the simulation is running (e.g. from the
+ * interface), either directly or as a multiplier of the base rate.
+ * 
+ * The waiting time is computed from a deadline, so the time spent computing
+ * a step is not added to it. If the simulation is late, it does not try to
+ * catch up.
+ */
+public class FrameRatePacing implements Pacing {
+
+	private final double baseStepsPerSecond;
+
+	private volatile double stepsPerSecond;
+
+	private long deadline; // System.nanoTime() of the end of the next step
+
+	public FrameRatePacing(double baseStepsPerSecond) {
+
+		this.baseStepsPerSecond = baseStepsPerSecond;
+		this.stepsPerSecond = baseStepsPerSecond;
+		this.deadline = 0;
+
+	}
+
+	public void pace(int timestep) {
+
+		long period = (long) (1e9 / stepsPerSecond);
+		long now = System.nanoTime();
+
+		if (deadline == 0 || now - deadline > period) {
+			deadline = now;
+		}
+
+		deadline += period;
+
+		long wait = deadline - now;
+
+		if (wait > 0) {
+
+			try {
+
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+
+			} catch (InterruptedException e) {
+				// if the simulation is interrupted by the user, do nothing
+			}
+		}
+
+	}
+
+	public double getStepsPerSecond() {
+		return stepsPerSecond;
+	}
+
+	public void setStepsPerSecond(double stepsPerSecond) {
+		this.stepsPerSecond = stepsPerSecond;
+	}
+
+	/**
+	 * sets the speed of the simulation relative to the base rate
+	 */
+	public void setSpeedMultiplier(double multiplier) {
+		this.stepsPerSecond = multiplier * baseStepsPerSecond;
+	}
+
+}
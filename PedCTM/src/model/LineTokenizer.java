@@ -0,0 +1,405 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * Reads a text file line by line and splits the current line into tokens,
+ * without regular expressions. By default the tokens are separated by any
+ * number of spaces or tabs. With another separator (e.g. ',' for CSV files),
+ * every separator ends exactly one field, fields can be empty and the blanks
+ * around them are ignored. Errors are reported as ParseException whose error
+ * offset is the line number (starting at 1).
+ *
+ * Numbers are parsed directly from the characters of the line. Decimal
+ * numbers with few enough digits are converted with a single exact division
+ * or multiplication by a power of ten, which gives the same (correctly
+ * rounded) result as Double.parseDouble; other numbers fall back to it.
+ */
+class LineTokenizer {
+
+	private static final double[] DoublePowers = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private static final float[] FloatPowers = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f,
+			1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+
+	private static final long MaxExactDouble = 1L << 53;
+	private static final long MaxExactFloat = 1L << 24;
+
+	private final BufferedReader reader;
+	private final char separator;
+	private final boolean fields; // true if every separator ends a field
+
+	private String line;
+	private int lineNumber;
+	private int position;
+
+	// bounds of the last token located
+
+	private int tokenStart;
+	private int tokenEnd;
+
+	// mantissa and decimal exponent of the last number scanned
+
+	private long mantissa;
+	private int exponent;
+
+	LineTokenizer(BufferedReader reader) {
+		this(reader, ' ');
+	}
+
+	LineTokenizer(BufferedReader reader, char separator) {
+
+		this.reader = reader;
+		this.separator = separator;
+		this.fields = separator != ' ';
+		this.line = null;
+		this.lineNumber = 0;
+		this.position = 0;
+
+	}
+
+	/**
+	 * reads the next line
+	 *
+	 * @return false at the end of the file
+	 */
+	boolean nextLine() throws IOException {
+
+		line = reader.readLine();
+
+		if (line == null) {
+			return false;
+		}
+
+		lineNumber++;
+		position = 0;
+
+		return true;
+
+	}
+
+	/**
+	 * reads the next line, which has to be exactly the given header
+	 */
+	void expectLine(String header) throws IOException, ParseException {
+
+		if (!nextLine()) {
+			throw error("expected " + header + " but reached the end of file");
+		}
+
+		if (!line.trim().equals(header)) {
+			throw error("expected " + header + " but found \"" + line + "\"");
+		}
+
+	}
+
+	/**
+	 * reads the next line, which must exist
+	 */
+	void requireLine() throws IOException, ParseException {
+
+		if (!nextLine()) {
+			throw error("unexpected end of file");
+		}
+
+	}
+
+	void close() throws IOException {
+		reader.close();
+	}
+
+	int getLineNumber() {
+		return lineNumber;
+	}
+
+	String getLine() {
+		return line;
+	}
+
+	/**
+	 * returns true if the current line has tokens left
+	 */
+	boolean hasMoreTokens() {
+
+		if (fields) {
+			return position <= line.length();
+		}
+
+		skipSeparators();
+
+		return position < line.length();
+
+	}
+
+	String nextToken() throws ParseException {
+
+		locateToken();
+
+		return line.substring(tokenStart, tokenEnd);
+
+	}
+
+	/**
+	 * returns the remaining tokens of the current line
+	 */
+	String[] remainingTokens() throws ParseException {
+
+		int from = position;
+
+		int count = 0;
+		while (hasMoreTokens()) {
+			nextToken();
+			count++;
+		}
+
+		position = from;
+
+		String[] tokens = new String[count];
+		for (int i = 0; i < count; i++) {
+			tokens[i] = nextToken();
+		}
+
+		return tokens;
+
+	}
+
+	int nextInt() throws ParseException {
+
+		locateToken();
+
+		if (!scanNumber() || exponent != 0 || mantissa > Integer.MAX_VALUE
+				|| mantissa < Integer.MIN_VALUE) {
+			throw error("invalid integer \"" + token() + "\"");
+		}
+
+		return (int) mantissa;
+
+	}
+
+	double nextDouble() throws ParseException {
+
+		locateToken();
+
+		if (scanNumber()) {
+
+			long m = Math.abs(mantissa);
+
+			if (m < MaxExactDouble && exponent >= -22 && exponent <= 22) {
+
+				double d = (double) mantissa;
+
+				if (exponent < 0) {
+					return d / DoublePowers[-exponent];
+				} else {
+					return d * DoublePowers[exponent];
+				}
+			}
+		}
+
+		String token = token();
+
+		try {
+
+			return Double.parseDouble(token);
+
+		} catch (NumberFormatException e) {
+			throw error("invalid number \"" + token + "\"");
+		}
+
+	}
+
+	float nextFloat() throws ParseException {
+
+		locateToken();
+
+		if (scanNumber()) {
+
+			long m = Math.abs(mantissa);
+
+			if (m < MaxExactFloat && exponent >= -10 && exponent <= 10) {
+
+				float d = (float) mantissa;
+
+				if (exponent < 0) {
+					return d / FloatPowers[-exponent];
+				} else {
+					return d * FloatPowers[exponent];
+				}
+			}
+		}
+
+		String token = token();
+
+		try {
+
+			return Float.parseFloat(token);
+
+		} catch (NumberFormatException e) {
+			throw error("invalid number \"" + token + "\"");
+		}
+
+	}
+
+	/**
+	 * returns an exception reporting an error at the current line
+	 */
+	ParseException error(String message) {
+		return new ParseException(message, lineNumber);
+	}
+
+	/**
+	 * delimits the next token of the line and moves after it
+	 */
+	private void locateToken() throws ParseException {
+
+		if (!hasMoreTokens()) {
+			throw error("missing value");
+		}
+
+		int end = position;
+
+		if (fields) {
+
+			while (end < line.length() && line.charAt(end) != separator) {
+				end++;
+			}
+
+			tokenStart = position;
+			tokenEnd = end;
+			position = end + 1; // after the separator
+
+			while (tokenStart < tokenEnd && isBlank(line.charAt(tokenStart))) {
+				tokenStart++;
+			}
+			while (tokenEnd > tokenStart && isBlank(line.charAt(tokenEnd - 1))) {
+				tokenEnd--;
+			}
+
+		} else {
+
+			while (end < line.length() && !isBlank(line.charAt(end))) {
+				end++;
+			}
+
+			tokenStart = position;
+			tokenEnd = end;
+			position = end;
+
+		}
+
+	}
+
+	private String token() {
+		return line.substring(tokenStart, tokenEnd);
+	}
+
+	/**
+	 * scans the last token located as [sign] digits [. digits] [e [sign]
+	 * digits] into mantissa * 10^exponent
+	 *
+	 * @return false if the token has another form or too many digits
+	 */
+	private boolean scanNumber() {
+
+		int end = tokenEnd;
+
+		int i = tokenStart;
+
+		boolean negative = false;
+
+		if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+			negative = line.charAt(i) == '-';
+			i++;
+		}
+
+		long m = 0;
+		int exp = 0;
+		int digits = 0;
+		boolean overflow = false;
+
+		while (i < end && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+			if (m < MaxExactDouble) {
+				m = 10 * m + (line.charAt(i) - '0');
+			} else {
+				overflow = true;
+			}
+			digits++;
+			i++;
+		}
+
+		if (i < end && line.charAt(i) == '.') {
+
+			i++;
+
+			while (i < end && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+				if (m < MaxExactDouble) {
+					m = 10 * m + (line.charAt(i) - '0');
+					exp--;
+				} else {
+					overflow = true;
+				}
+				digits++;
+				i++;
+			}
+		}
+
+		if (digits == 0) {
+			return false;
+		}
+
+		if (i < end && (line.charAt(i) == 'e' || line.charAt(i) == 'E')) {
+
+			i++;
+
+			boolean negativeExp = false;
+
+			if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+				negativeExp = line.charAt(i) == '-';
+				i++;
+			}
+
+			int e = 0;
+			int expDigits = 0;
+
+			while (i < end && line.charAt(i) >= '0' && line.charAt(i) <= '9'
+					&& e < 10000) {
+				e = 10 * e + (line.charAt(i) - '0');
+				expDigits++;
+				i++;
+			}
+
+			if (expDigits == 0) {
+				return false;
+			}
+
+			exp += negativeExp ? -e : e;
+		}
+
+		if (i != end || overflow || (negative && m == 0)) {
+			return false; // (-0 is left to the standard parser)
+		}
+
+		mantissa = negative ? -m : m;
+		exponent = exp;
+
+		return true;
+
+	}
+
+	private void skipSeparators() {
+
+		while (position < line.length() && isBlank(line.charAt(position))) {
+			position++;
+		}
+
+	}
+
+	private static boolean isBlank(char ch) {
+		return ch == ' ' || ch == '\t';
+	}
+
+}
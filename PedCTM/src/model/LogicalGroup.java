@@ -1,33 +1,32 @@
 package model;
 
 /**
- * represents the people in a cell
+ * identifies the people of a route with a certain departure interval by a
+ * key combining the index of the route and the interval. The number of
+ * people of each logical group in a cell is stored in an Occupancy.
  * 
  * @author Thomas Muehlematter
  * 
  */
 public class LogicalGroup {
 
-	// all variables are public to makes access faster
-	public final String route;
-	public final int startInterval;
-	public double numberPeople;
-
-	public LogicalGroup(String r, int interval, double numberPeople) {
-
-		this.route = r;
-		this.startInterval = interval;
-		this.numberPeople = numberPeople;
+	private LogicalGroup() {
+	}
 
+	/**
+	 * returns the key identifying the logical group of a route with a certain
+	 * departure interval
+	 */
+	public static long key(int route, int interval) {
+		return ((long) route << 32) | (interval & 0xFFFFFFFFL);
 	}
 
-	public boolean sameAs(LogicalGroup in) {
-		boolean result = false;
-		if (in.route.equals(route) && in.startInterval == startInterval) {
-			result = true;
-		}
+	public static int route(long key) {
+		return (int) (key >>> 32);
+	}
 
-		return result;
+	public static int interval(long key) {
+		return (int) key;
 	}
 
 }
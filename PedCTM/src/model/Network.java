@@ -0,0 +1,546 @@
+package model;
+
+import java.util.HashMap;
+
+/**
+ * Compiled representation of the layout. Every cell is given a dense integer
+ * index at loading time (in the order of the layout file), the per-cell
+ * parameters and state are stored in primitive arrays and the adjacency is
+ * stored in compressed sparse row (CSR) form.
+ *
+ * The outgoing edges of cell c are the edges e with neighborStart[c] <= e <
+ * neighborStart[c + 1], the target of edge e is neighbors[e] and its source is
+ * edgeSource[e]. The incoming edges of cell c are incoming[i] with
+ * incomingStart[c] <= i < incomingStart[c + 1].
+ *
+ * All arrays are package-private to make access from the board faster.
+ */
+public class Network {
+
+	final int numberCells;
+
+	// static parameters of the cells
+
+	final String[] cid; // cell id (unique for a certain layout)
+	final String[] zone; // zone in which the cell is placed
+	final int[] zoneIndex; // index of the zone in which the cell is placed
+	final double[] shape; // gamma
+	final double[] area; // area = deltaL*deltaL
+	final double[] kc; // critical density
+	final double[] delta; // delta parameter
+	final double[] maxCapacity; // maximum number of people in the cell
+	final double[] Qmax; // maximum flow in the cell
+	final double[] nmax; // number of people in the cell corresponding to the
+							// maximum flow
+	final float[] coordinates; // 8 coordinates per cell in the visual
+								// representation
+
+	// adjacency in compressed sparse row form
+
+	int[] neighborStart;
+	int[] neighbors;
+	int[] edgeSource;
+	int[] incomingStart;
+	int[] incoming;
+	int maxDegree; // maximum number of outgoing edges of a cell
+
+	// cells of each zone (in the order of the layout): zoneCells[i] with
+	// zoneCellStart[z] <= i < zoneCellStart[z + 1]
+
+	int[] zoneCellStart;
+	int[] zoneCells;
+
+	// dynamic state of the cells
+
+	final double[] numberPeople; // total number of people in the cell
+	final double[] projectedOccupancy;
+	final double[] Rc; // receiving capacity of the cell
+	final double[] speedWeight; // exp(beta * speed) at the beginning of the
+								// step, dynamic part of the route choice
+
+	Occupancy[] people; // logical groups in each cell
+	FlowBuffer[] sending; // projected flows along each edge
+	double[] edgeSending; // sum of the projected flows along each edge
+
+	private HashMap<String, Integer> index;
+
+	private HashMap<String, Integer> zoneIndices;
+
+	private String[][] neighborIds; // only used until compile()
+
+	private int size;
+
+	/**
+	 * allocates a network for a given number of cells
+	 */
+	public Network(int numberCells) {
+
+		this.numberCells = numberCells;
+
+		this.cid = new String[numberCells];
+		this.zone = new String[numberCells];
+		this.zoneIndex = new int[numberCells];
+		this.shape = new double[numberCells];
+		this.area = new double[numberCells];
+		this.kc = new double[numberCells];
+		this.delta = new double[numberCells];
+		this.maxCapacity = new double[numberCells];
+		this.Qmax = new double[numberCells];
+		this.nmax = new double[numberCells];
+		this.coordinates = new float[8 * numberCells];
+
+		this.numberPeople = new double[numberCells];
+		this.projectedOccupancy = new double[numberCells];
+		this.Rc = new double[numberCells];
+		this.speedWeight = new double[numberCells];
+
+		this.index = new HashMap<String, Integer>(2 * numberCells);
+		this.zoneIndices = new HashMap<String, Integer>();
+		this.neighborIds = new String[numberCells][];
+
+		this.size = 0;
+
+	}
+
+	/**
+	 * adds a cell to the network and returns its index. The neighbor ids n
+	 * are resolved by compile(), they can be null if the adjacency is given
+	 * to compile(int[], int[]) instead.
+	 */
+	public int addCell(String id, String z, double shape, double area,
+			double kc, double delta, float[] coo, String[] n) {
+
+		int c = size;
+
+		this.cid[c] = id;
+		this.zone[c] = z;
+
+		Integer zi = zoneIndices.get(z);
+		if (zi == null) {
+			zi = zoneIndices.size();
+			zoneIndices.put(z, zi);
+		}
+		this.zoneIndex[c] = zi;
+
+		this.shape[c] = shape;
+		this.area[c] = area;
+		this.kc[c] = kc;
+		this.delta[c] = delta;
+		this.maxCapacity[c] = area * kc;
+
+		System.arraycopy(coo, 0, this.coordinates, 8 * c, 8);
+
+		this.neighborIds[c] = n;
+
+		index.put(id, c);
+
+		computeFundamentalDiagram(c, 0.3); // default = 0.3; n_0 = 0.3 N is a
+											// heuristic choice
+
+		size++;
+
+		return c;
+
+	}
+
+	/**
+	 * resolves the neighbor ids into the CSR adjacency. Has to be called once
+	 * all the cells have been added. Duplicated neighbors are only kept once.
+	 *
+	 * @return false if a neighbor does not exist in the layout
+	 */
+	public boolean compile() {
+
+		if (size != numberCells) {
+			System.out.println("Error: " + numberCells + " cells declared but "
+					+ size + " cells loaded.");
+			return false;
+		}
+
+		neighborStart = new int[numberCells + 1];
+
+		int numberEdges = 0;
+		for (int c = 0; c < numberCells; c++) {
+			numberEdges += neighborIds[c].length;
+		}
+
+		int[] targets = new int[numberEdges];
+
+		int e = 0;
+		for (int c = 0; c < numberCells; c++) {
+
+			neighborStart[c] = e;
+
+			for (String s : neighborIds[c]) {
+
+				if (s.isEmpty()) {
+					continue;
+				}
+
+				Integer n = index.get(s);
+
+				if (n == null) {
+					System.out.println("Error: neighbor " + s + " of cell "
+							+ cid[c] + " does not exist.");
+					return false;
+				}
+
+				boolean duplicate = false;
+				for (int k = neighborStart[c]; k < e; k++) {
+					if (targets[k] == n) {
+						duplicate = true;
+					}
+				}
+
+				if (!duplicate) {
+					targets[e] = n;
+					e++;
+				}
+			}
+		}
+		neighborStart[numberCells] = e;
+
+		neighbors = new int[e];
+		System.arraycopy(targets, 0, neighbors, 0, e);
+
+		neighborIds = null;
+
+		buildAdjacency();
+
+		return true;
+
+	}
+
+	/**
+	 * sets the CSR adjacency of the network directly (e.g. when it is loaded
+	 * from a compiled scenario). Has to be called once all the cells have been
+	 * added, instead of compile().
+	 */
+	void compile(int[] neighborStart, int[] neighbors) {
+
+		this.neighborStart = neighborStart;
+		this.neighbors = neighbors;
+
+		neighborIds = null;
+
+		buildAdjacency();
+
+	}
+
+	/**
+	 * builds the index of the cells of each zone
+	 */
+	private void indexZones() {
+
+		int numberZones = zoneIndices.size();
+
+		zoneCellStart = new int[numberZones + 1];
+		for (int c = 0; c < numberCells; c++) {
+			zoneCellStart[zoneIndex[c] + 1]++;
+		}
+		for (int z = 0; z < numberZones; z++) {
+			zoneCellStart[z + 1] += zoneCellStart[z];
+		}
+
+		zoneCells = new int[numberCells];
+		int[] fill = new int[numberZones];
+		for (int c = 0; c < numberCells; c++) {
+			int z = zoneIndex[c];
+			zoneCells[zoneCellStart[z] + fill[z]] = c;
+			fill[z]++;
+		}
+
+	}
+
+	/**
+	 * derives the sources of the edges and the incoming edges from the
+	 * outgoing edges, and allocates the state of the edges
+	 */
+	private void buildAdjacency() {
+
+		indexZones();
+
+		int e = neighbors.length;
+
+		edgeSource = new int[e];
+		maxDegree = 0;
+		for (int c = 0; c < numberCells; c++) {
+			for (int k = neighborStart[c]; k < neighborStart[c + 1]; k++) {
+				edgeSource[k] = c;
+			}
+			maxDegree = Math.max(maxDegree, neighborStart[c + 1]
+					- neighborStart[c]);
+		}
+
+		// reverse adjacency, incoming edges are sorted by source cell
+
+		incomingStart = new int[numberCells + 1];
+		for (int k = 0; k < e; k++) {
+			incomingStart[neighbors[k] + 1]++;
+		}
+		for (int c = 0; c < numberCells; c++) {
+			incomingStart[c + 1] += incomingStart[c];
+		}
+
+		incoming = new int[e];
+		int[] fill = new int[numberCells];
+		for (int k = 0; k < e; k++) {
+			int t = neighbors[k];
+			incoming[incomingStart[t] + fill[t]] = k;
+			fill[t]++;
+		}
+
+		allocateGroups();
+
+	}
+
+	private void allocateGroups() {
+
+		people = new Occupancy[numberCells];
+		for (int c = 0; c < numberCells; c++) {
+			people[c] = new Occupancy();
+		}
+
+		sending = new FlowBuffer[neighbors.length];
+		for (int e = 0; e < neighbors.length; e++) {
+			sending[e] = new FlowBuffer();
+		}
+
+		edgeSending = new double[neighbors.length];
+
+	}
+
+	/**
+	 * computes nmax and Qmax of the cell from its shape, area and maximal
+	 * capacity
+	 *
+	 * @param relStartPoint
+	 *            - initial guess n_0 = relStartPoint * N
+	 */
+	void computeFundamentalDiagram(int c, double relStartPoint) {
+
+		double x0 = (shape[c] * area[c]) / (relStartPoint * maxCapacity[c]);
+
+		double xN = (shape[c] * area[c]) / maxCapacity[c];
+
+		double a = 0.5 * (1 - x0) * Math.exp(xN - x0);
+		double b = Math.pow(x0, 2) * Math.exp(xN - x0);
+		double d = 1
+				- (1 + x0 + (0.5 * Math.pow(x0, 2)) + (0.5 * Math.pow(x0, 3)))
+				* Math.exp(xN - x0);
+
+		double xopt = (-b + Math.sqrt(Math.pow(b, 2) - (4 * a * d))) / (2 * a);
+
+		// neglecting negative root
+
+		nmax[c] = (shape[c] * area[c]) / xopt;
+
+		Qmax[c] = nmax[c]
+				* (1 - Math.exp(-shape[c] * area[c]
+						* ((1 / nmax[c]) - (1 / maxCapacity[c]))));
+
+		if (!(Qmax[c] > 0 && (!(Double.isInfinite(Qmax[c])))) || !(nmax[c] > 0)) {
+			System.out.println("Error: Qmax or nmax of cell " + cid[c]
+					+ " is negative, infinite or NaN.\n" + "Currently nmax = "
+					+ nmax[c] + ", Qmax = " + Qmax[c] + "\n"
+					+ "Choose an appropriate initial guess for nmax (see relStartPoint). \n"
+					+ "Currently relStartPoint = " + relStartPoint
+					+ " (default 0.3)");
+		}
+	}
+
+	/**
+	 * returns the index of the cell, or -1 if it does not exist
+	 */
+	public int indexOf(String id) {
+
+		Integer c = index.get(id);
+
+		if (c == null) {
+			return -1;
+		}
+
+		return c;
+
+	}
+
+	/**
+	 * returns the index of the zone, or -1 if no cell is placed in it
+	 */
+	public int zoneIndexOf(String z) {
+
+		Integer zi = zoneIndices.get(z);
+
+		if (zi == null) {
+			return -1;
+		}
+
+		return zi;
+
+	}
+
+	/**
+	 * returns the last cell of the zone in the order of the layout, or -1 if
+	 * no cell is placed in it
+	 */
+	public int lastCellOf(String z) {
+
+		int zi = zoneIndexOf(z);
+
+		if (zi < 0 || zoneCellStart[zi + 1] == zoneCellStart[zi]) {
+			return -1;
+		}
+
+		return zoneCells[zoneCellStart[zi + 1] - 1];
+
+	}
+
+	public int getNumberZones() {
+		return zoneIndices.size();
+	}
+
+	/**
+	 * returns the flow of the cell
+	 */
+	double getFlow(int c) {
+
+		double n = numberPeople[c];
+
+		if (n > 0 && n < maxCapacity[c]) {
+
+			return n
+					* (1 - Math.exp(-shape[c] * area[c]
+							* ((1 / n) - (1 / maxCapacity[c]))));
+		} else {
+
+			return 0.0;
+
+		}
+	}
+
+	/**
+	 * returns the hydrodynamic outflow capacity of the cell
+	 */
+	double getQs(int c) {
+
+		if (numberPeople[c] < nmax[c]) {
+
+			return getFlow(c);
+
+		} else {
+
+			return Qmax[c];
+
+		}
+
+	}
+
+	/**
+	 * computes the receiving capacity of the cell
+	 */
+	void computeReceivingCapacity(int c) {
+
+		double flow = 0.0;
+
+		if (!(nmax[c] > 0)) {
+			System.out.println("Warning: Negative nmax of value " + nmax[c]);
+		}
+
+		if (numberPeople[c] > nmax[c]) {
+
+			flow = getFlow(c);
+
+		} else {
+
+			flow = Qmax[c];
+
+		}
+
+		Rc[c] = Math.min(flow, delta[c] * (maxCapacity[c] - numberPeople[c]));
+
+		if (!(Rc[c] >= 0)) {
+			System.out.println("\nWarning: Capacity exceeded in cell " + cid[c]
+					+ " (" + delta[c] * (maxCapacity[c] - numberPeople[c])
+					+ ")");
+			Rc[c] = 0;
+		}
+
+	}
+
+	/**
+	 * returns the speed in the cell
+	 */
+	double computeSpeed(int c) {
+
+		if (numberPeople[c] < 0.0) {
+
+			return 1.0;
+
+		} else {
+
+			return (1 - Math.exp(-shape[c] * area[c]
+					* ((1 / numberPeople[c]) - (1 / maxCapacity[c]))));
+		}
+
+	}
+
+	/**
+	 * adds the number of people of each route that are in the cell to result,
+	 * which is indexed by route
+	 */
+	void addRoutePeople(int c, double[] result) {
+
+		Occupancy groups = people[c];
+
+		for (int g = 0; g < groups.size(); g++) {
+
+			result[LogicalGroup.route(groups.getKey(g))] += groups.getPeople(g);
+
+		}
+
+	}
+
+	/**
+	 * add people of a logical group to the cell
+	 */
+	void addPeople(int c, long key, double n) {
+
+		people[c].add(key, n);
+		numberPeople[c] += n;
+
+	}
+
+	/**
+	 * remove people of a logical group from the cell
+	 */
+	void subPeople(int c, long key, double n) {
+
+		if (people[c].sub(key, n)) {
+
+			numberPeople[c] -= n;
+
+		}
+
+	}
+
+	public int getNumberCells() {
+		return numberCells;
+	}
+
+	public String getCid(int c) {
+		return cid[c];
+	}
+
+	public String getZone(int c) {
+		return zone[c];
+	}
+
+	public double getArea(int c) {
+		return area[c];
+	}
+
+	public double getNumberPeople(int c) {
+		return numberPeople[c];
+	}
+
+}
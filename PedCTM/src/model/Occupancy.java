@@ -0,0 +1,204 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Number of people of each logical group present in a cell. A logical group
+ * is identified by a key combining the index of its route and its departure
+ * interval (see LogicalGroup.key).
+ *
+ * The groups are stored densely in two primitive arrays so that they can be
+ * iterated over without allocation (using size(), getKey(i) and
+ * getPeople(i)), and an open addressing hash table maps each key to its
+ * position for O(1) addition and subtraction. Removing a group moves the last
+ * group to its position, so a loop removing groups has to iterate backwards.
+ */
+public class Occupancy {
+
+	private static final int InitialCapacity = 4;
+
+	private long[] keys;
+	private double[] people;
+	private int size;
+
+	private int[] table; // position + 1 of the group, 0 if the slot is empty
+	private int mask;
+
+	public Occupancy() {
+
+		keys = new long[InitialCapacity];
+		people = new double[InitialCapacity];
+		size = 0;
+
+		table = new int[2 * InitialCapacity];
+		mask = table.length - 1;
+
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getKey(int i) {
+		return keys[i];
+	}
+
+	public double getPeople(int i) {
+		return people[i];
+	}
+
+	/**
+	 * adds people to a group, creating it if necessary
+	 */
+	public void add(long key, double n) {
+
+		int slot = find(key);
+
+		if (table[slot] != 0) {
+
+			people[table[slot] - 1] += n;
+
+		} else {
+
+			if (size == keys.length) {
+				grow();
+				slot = find(key);
+			}
+
+			keys[size] = key;
+			people[size] = n;
+			size++;
+			table[slot] = size;
+
+		}
+
+	}
+
+	/**
+	 * subtracts people from a group. The group is removed when no people are
+	 * left in it.
+	 * 
+	 * @return false if the group is not in the cell
+	 */
+	public boolean sub(long key, double n) {
+
+		int slot = find(key);
+
+		if (table[slot] == 0) {
+			return false;
+		}
+
+		int i = table[slot] - 1;
+
+		people[i] -= n;
+
+		if (people[i] <= 0.0) {
+			removeAt(i);
+		}
+
+		return true;
+
+	}
+
+	/**
+	 * removes the group at position i, the last group takes its place
+	 */
+	public void removeAt(int i) {
+
+		deleteSlot(find(keys[i]));
+
+		size--;
+
+		if (i != size) {
+
+			keys[i] = keys[size];
+			people[i] = people[size];
+			table[find(keys[i])] = i + 1;
+
+		}
+
+	}
+
+	/**
+	 * removes all the groups
+	 */
+	public void clear() {
+
+		Arrays.fill(table, 0);
+
+		size = 0;
+
+	}
+
+	/**
+	 * returns the slot of the key, or the empty slot where it would be
+	 * inserted
+	 */
+	private int find(long key) {
+
+		int slot = hash(key) & mask;
+
+		while (table[slot] != 0 && keys[table[slot] - 1] != key) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+
+	}
+
+	/**
+	 * empties a slot and shifts back the following entries of the probe
+	 * sequence (linear probing deletion)
+	 */
+	private void deleteSlot(int slot) {
+
+		int hole = slot;
+		int next = (hole + 1) & mask;
+
+		while (table[next] != 0) {
+
+			int home = hash(keys[table[next] - 1]) & mask;
+
+			// the entry can fill the hole if its home is not in (hole, next]
+
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				table[hole] = table[next];
+				hole = next;
+			}
+
+			next = (next + 1) & mask;
+		}
+
+		table[hole] = 0;
+
+	}
+
+	private void grow() {
+
+		long[] k = new long[2 * keys.length];
+		double[] p = new double[2 * keys.length];
+
+		System.arraycopy(keys, 0, k, 0, size);
+		System.arraycopy(people, 0, p, 0, size);
+
+		keys = k;
+		people = p;
+
+		table = new int[2 * keys.length];
+		mask = table.length - 1;
+
+		for (int i = 0; i < size; i++) {
+			table[find(keys[i])] = i + 1;
+		}
+
+	}
+
+	private static int hash(long key) {
+
+		long h = key * 0x9E3779B97F4A7C15L;
+
+		return (int) (h ^ (h >>> 32));
+
+	}
+
+}
@@ -0,0 +1,216 @@
+package model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Decides what an output receives: which quantities (the number of people in
+ * each cell, which is always written, and optionally the number of people of
+ * each route and the static floor fields), at which time steps (every stride
+ * steps between a start and an end timestep) and in which cells (a list of
+ * cells and/or the cells of a set of zones). With
+ * averaging, each written value is the mean over the stride steps that end
+ * with the written step, instead of the value at that step.
+ *
+ * The board does not compute the quantities that no output requests at a
+ * time step.
+ *
+ * The number of people in each cell cannot be switched off: the formats of
+ * all the sinks are built around it, and it is the only quantity that the
+ * board maintains anyway.
+ */
+public class OutputPolicy {
+
+	private boolean routes = true;
+	private boolean potentials = true;
+
+	private int stride = 1;
+	private int start = 0;
+	private int end = Integer.MAX_VALUE;
+
+	private boolean average = false;
+
+	private String[] cells; // null for all the cells
+	private String[] zones; // null for all the zones
+
+	/**
+	 * returns true if the value of the time step is written (or is the last
+	 * step of an averaging period)
+	 */
+	public boolean isWritten(int timestep) {
+
+		return isInWindow(timestep) && (timestep - start) % stride == stride - 1;
+
+	}
+
+	/**
+	 * returns true if the value of the time step is used, i.e. written or
+	 * added to an average
+	 */
+	public boolean isUsed(int timestep) {
+
+		return average ? isInWindow(timestep) : isWritten(timestep);
+
+	}
+
+	private boolean isInWindow(int timestep) {
+
+		return timestep >= start && timestep <= end;
+
+	}
+
+	/**
+	 * returns the indices of the selected cells in increasing order, or null
+	 * if all the cells are selected
+	 *
+	 * @throws IllegalArgumentException
+	 *             - if a cell or a zone does not exist
+	 */
+	int[] selectCells(Network network) {
+
+		if (cells == null && zones == null) {
+			return null;
+		}
+
+		BitSet selected = new BitSet(network.getNumberCells());
+
+		if (cells != null) {
+
+			for (String cid : cells) {
+
+				int c = network.indexOf(cid);
+
+				if (c < 0) {
+					throw new IllegalArgumentException("unknown cell " + cid);
+				}
+
+				selected.set(c);
+			}
+		}
+
+		if (zones != null) {
+
+			for (String z : zones) {
+
+				int zi = network.zoneIndexOf(z);
+
+				if (zi < 0) {
+					throw new IllegalArgumentException("unknown zone " + z);
+				}
+
+				int from = network.zoneCellStart[zi];
+				int to = network.zoneCellStart[zi + 1];
+
+				for (int i = from; i < to; i++) {
+					selected.set(network.zoneCells[i]);
+				}
+			}
+		}
+
+		int[] result = new int[selected.cardinality()];
+
+		int i = 0;
+		for (int c = selected.nextSetBit(0); c >= 0; c = selected
+				.nextSetBit(c + 1)) {
+			result[i++] = c;
+		}
+
+		return result;
+
+	}
+
+	public boolean hasRoutes() {
+		return routes;
+	}
+
+	/**
+	 * decides if the number of people of each route in each cell is written
+	 */
+	public void setRoutes(boolean routes) {
+		this.routes = routes;
+	}
+
+	public boolean hasPotentials() {
+		return potentials;
+	}
+
+	/**
+	 * decides if the static floor field of each route is written (once, when
+	 * the output is opened)
+	 */
+	public void setPotentials(boolean potentials) {
+		this.potentials = potentials;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * writes one time step every stride steps (1 by default)
+	 */
+	public void setStride(int stride) {
+
+		if (stride < 1) {
+			throw new IllegalArgumentException("stride must be at least 1");
+		}
+
+		this.stride = stride;
+
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * restricts the output to the time steps between start and end
+	 * (included)
+	 */
+	public void setWindow(int start, int end) {
+
+		this.start = start;
+		this.end = end;
+
+	}
+
+	public boolean isAverage() {
+		return average;
+	}
+
+	/**
+	 * decides if the written values are averaged over the stride steps
+	 */
+	public void setAverage(boolean average) {
+		this.average = average;
+	}
+
+	public String[] getCells() {
+		return cells;
+	}
+
+	/**
+	 * restricts the output to the given cells (with the cells of the zones,
+	 * if set), null for all the cells
+	 */
+	public void setCells(String[] cells) {
+		this.cells = cells == null ? null : Arrays.copyOf(cells, cells.length);
+	}
+
+	public String[] getZones() {
+		return zones;
+	}
+
+	/**
+	 * restricts the output to the cells of the given zones (with the cells,
+	 * if set), null for all the zones
+	 */
+	public void setZones(String[] zones) {
+		this.zones = zones == null ? null : Arrays.copyOf(zones, zones.length);
+	}
+
+}
@@ -0,0 +1,47 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Destination of the space time output of the simulation (number of people
+ * in each cell, in total and for each route). The state is written at the
+ * end of every time step, so that the output does not have to be kept in
+ * memory until the end of the simulation.
+ */
+public interface OutputSink {
+
+	/**
+	 * called once before the first time step is written
+	 * 
+	 * @param cells
+	 *            - ids of the cells, in the order of the values of each step
+	 * @param routes
+	 *            - ids of the routes
+	 * @param deltaL
+	 *            - length of the cells
+	 * @param timeInterval
+	 *            - duration of a time step (0 if it is not known)
+	 * @param potentials
+	 *            - static floor field of each route in each cell
+	 */
+	void open(String[] cells, String[] routes, double deltaL,
+			double timeInterval, double[][] potentials) throws IOException;
+
+	/**
+	 * writes the state at the end of a time step. The arrays are reused by
+	 * the board and must not be kept.
+	 * 
+	 * @param people
+	 *            - number of people in each cell
+	 * @param routePeople
+	 *            - number of people of each route in each cell
+	 */
+	void write(int timestep, double[] people, double[][] routePeople)
+			throws IOException;
+
+	/**
+	 * flushes and closes the output
+	 */
+	void close() throws IOException;
+
+}
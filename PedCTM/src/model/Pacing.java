@@ -0,0 +1,15 @@
+package model;
+
+/**
+ * Decides how fast the simulation advances. The board calls pace() after each
+ * time step, which may block to slow down the simulation (e.g. to be able to
+ * visualize it).
+ */
+public interface Pacing {
+
+	/**
+	 * called by the simulation thread after the time step has been computed
+	 */
+	void pace(int timestep);
+
+}
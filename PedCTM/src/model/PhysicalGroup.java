@@ -6,9 +6,6 @@
  */
 package model;
 
-import java.util.ArrayList;
-import java.util.Hashtable;
-
 public class PhysicalGroup {
 
 	private String route; // id of the group (unique in the simulation)
@@ -23,7 +20,20 @@ public class PhysicalGroup {
 	private String[] routeArray; // sequence of zones traversed by the group
 	private double[] startRepartition; // repartition of the number of people
 										// appearing for each interval
-	private Hashtable<Integer, ArrayList<String>> TT; // travel times table
+
+	// departures added while loading the demand, in the order of the file,
+	// until the repartition is built
+
+	private int[] departureIntervals;
+	private double[] departureWeights;
+	private int numberDepartures;
+	private TravelTimes travelTimes; // travel times of the people who have
+										// arrived at the sink
+
+	private int cohortLength; // number of intervals merged in a cohort
+	private int[] cohorts; // departure interval of the cohort of each
+							// interval of the repartition, computed at the
+							// first use
 
 	public PhysicalGroup(String id, String so, String si, String[] route, double[] r) {
 
@@ -31,12 +41,78 @@ public class PhysicalGroup {
 		this.source = so;
 		this.sink = si;
 		this.startRepartition = r;
-		this.TT = new Hashtable<Integer, ArrayList<String>>();
+		this.travelTimes = new TravelTimes();
 		this.route = id;
 		this.routeArray = route;
 
 	}
 
+	/**
+	 * creates a group whose repartition is given by addDeparture() and built
+	 * by buildRepartition()
+	 */
+	public PhysicalGroup(String id, String so, String si, String[] route) {
+
+		this(id, so, si, route, null);
+
+		this.departureIntervals = new int[4];
+		this.departureWeights = new double[4];
+		this.numberDepartures = 0;
+
+	}
+
+	/**
+	 * sets the number of people appearing in an interval (replaces a previous
+	 * departure in the same interval)
+	 */
+	public void addDeparture(int interval, double weight) {
+
+		if (numberDepartures == departureIntervals.length) {
+
+			int[] i = new int[2 * numberDepartures];
+			double[] w = new double[2 * numberDepartures];
+
+			System.arraycopy(departureIntervals, 0, i, 0, numberDepartures);
+			System.arraycopy(departureWeights, 0, w, 0, numberDepartures);
+
+			departureIntervals = i;
+			departureWeights = w;
+		}
+
+		departureIntervals[numberDepartures] = interval;
+		departureWeights[numberDepartures] = weight;
+		numberDepartures++;
+
+	}
+
+	/**
+	 * builds the repartition from the departures, once all of them have been
+	 * added. Does nothing if the repartition was given to the constructor.
+	 */
+	public void buildRepartition() {
+
+		if (departureIntervals == null) {
+			return;
+		}
+
+		int last = 0;
+		for (int d = 0; d < numberDepartures; d++) {
+			last = Math.max(last, departureIntervals[d]);
+		}
+
+		startRepartition = new double[last + 1];
+
+		for (int d = 0; d < numberDepartures; d++) {
+			startRepartition[departureIntervals[d]] = departureWeights[d];
+		}
+
+		cohorts = null;
+
+		departureIntervals = null;
+		departureWeights = null;
+
+	}
+
 	public int getStartTime() {
 
 		return startTime;
@@ -88,43 +164,87 @@ public class PhysicalGroup {
 	public void setStartRepartition(double[] startRepartition) {
 
 		this.startRepartition = startRepartition;
+		this.cohorts = null;
 
 	}
 
-	public Hashtable<Integer, ArrayList<String>> getTT() {
+	/**
+	 * returns the departure interval of the people appearing in an interval
+	 * when the departures are merged into cohorts of a given number of
+	 * intervals (aligned on interval 0). The departure interval of a cohort
+	 * is the mean of the intervals of its people, rounded, so that the mean
+	 * travel time of the cohort is not biased. With cohorts of length 1, it
+	 * is the interval itself.
+	 *
+	 * @param interval
+	 *            - interval of the repartition (from getStartTime())
+	 */
+	public int getCohort(int interval, int length) {
+
+		if (length == 1) {
+			return interval;
+		}
+
+		if (cohorts == null || cohortLength != length) {
+			computeCohorts(length);
+		}
 
-		return this.TT;
+		return cohorts[interval - startTime];
 
 	}
 
-	public String getRoute() {
+	private void computeCohorts(int length) {
 
-		return route;
+		cohortLength = length;
+		cohorts = new int[startRepartition.length];
 
-	}
+		int i = 0;
 
-	/**
-	 * add a certain travel time to the table when a group exits the simulation
-	 */
-	public void addTravelTime(Integer start, Integer tt, double n) {
+		while (i < cohorts.length) {
 
-		String value = Integer.toString(tt).concat("/" + Double.toString(n));
+			// intervals of the cohort of interval i
 
-		ArrayList<String> tmp;
+			int first = startTime + i;
+			int end = Math.min(cohorts.length, i + length
+					- Math.floorMod(first, length));
 
-		if (TT.containsKey(start)) {
+			double people = 0.0;
+			double sum = 0.0;
 
-			tmp = TT.get(start);
+			for (int k = i; k < end; k++) {
+				people += startRepartition[k];
+				sum += startRepartition[k] * (startTime + k);
+			}
 
-		} else {
+			int cohort = people > 0.0 ? (int) Math.round(sum / people) : first;
 
-			tmp = new ArrayList<String>();
+			for (int k = i; k < end; k++) {
+				cohorts[k] = cohort;
+			}
 
+			i = end;
 		}
 
-		tmp.add(value);
+	}
+
+	public TravelTimes getTravelTimes() {
+
+		return this.travelTimes;
+
+	}
+
+	public String getRoute() {
+
+		return route;
+
+	}
+
+	/**
+	 * add a certain travel time to the table when a group exits the simulation
+	 */
+	public void addTravelTime(int start, int tt, double n) {
 
-		TT.put(start, tmp);
+		travelTimes.add(start, tt, n);
 
 	}
 
@@ -0,0 +1,161 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Subgraph of the network used by a route. It stores the static floor field
+ * of the route only in the cells where it is defined, and for each cell that
+ * can send people along the route (i.e. that has at least one neighbor on
+ * the route) the list of its admissible outgoing edges in compressed sparse
+ * row form, together with the static part of the route choice along them.
+ *
+ * The admissible edges of row r (the cell cells[r]) are edges[j] with
+ * edgeStart[r] <= j < edgeStart[r + 1], in the order of the network.
+ */
+public class RouteGraph {
+
+	// static floor field, sorted by cell
+
+	final int[] members;
+	final double[] potentials;
+
+	// admissible edges of the cells that can send people along the route
+
+	final int[] cells; // sorted
+	final int[] edgeStart;
+	final int[] edges; // edge of the network
+	final double[] weights; // exp(-alpha * (SFF_n - SFF_c)) along each edge
+
+	/**
+	 * compiles the subgraph of a route from its static floor field, given
+	 * for every cell of the network (positive on the route, -1 or 0 outside)
+	 */
+	public RouteGraph(Network network, double[] F) {
+
+		int[] start = network.neighborStart;
+		int[] adj = network.neighbors;
+
+		int numberMembers = 0;
+		for (int c = 0; c < F.length; c++) {
+			if (F[c] != 0.0) {
+				numberMembers++;
+			}
+		}
+
+		members = new int[numberMembers];
+		potentials = new double[numberMembers];
+
+		int m = 0;
+		for (int c = 0; c < F.length; c++) {
+			if (F[c] != 0.0) {
+				members[m] = c;
+				potentials[m] = F[c];
+				m++;
+			}
+		}
+
+		int numberRows = 0;
+		int numberEdges = 0;
+		for (int c = 0; c < F.length; c++) {
+
+			int admissible = 0;
+			for (int e = start[c]; e < start[c + 1]; e++) {
+				if (F[adj[e]] > 0.0) {
+					admissible++;
+				}
+			}
+
+			if (admissible > 0) {
+				numberRows++;
+				numberEdges += admissible;
+			}
+		}
+
+		cells = new int[numberRows];
+		edgeStart = new int[numberRows + 1];
+		edges = new int[numberEdges];
+		weights = new double[numberEdges];
+
+		int r = 0;
+		int j = 0;
+		for (int c = 0; c < F.length; c++) {
+
+			int first = j;
+			for (int e = start[c]; e < start[c + 1]; e++) {
+				if (F[adj[e]] > 0.0) {
+					edges[j] = e;
+					j++;
+				}
+			}
+
+			if (j > first) {
+				cells[r] = c;
+				edgeStart[r] = first;
+				r++;
+			}
+		}
+		edgeStart[numberRows] = j;
+
+	}
+
+	/**
+	 * creates the subgraph of a route from its compiled arrays (e.g. read from
+	 * a compiled scenario). The weights have to be computed afterwards.
+	 */
+	RouteGraph(int[] members, double[] potentials, int[] cells,
+			int[] edgeStart, int[] edges) {
+
+		this.members = members;
+		this.potentials = potentials;
+		this.cells = cells;
+		this.edgeStart = edgeStart;
+		this.edges = edges;
+		this.weights = new double[edges.length];
+
+	}
+
+	/**
+	 * computes the static part of the route choice along the admissible
+	 * edges. Has to be called again when alpha changes.
+	 */
+	public void computeWeights(Network network, double alpha) {
+
+		int[] adj = network.neighbors;
+
+		for (int r = 0; r < cells.length; r++) {
+
+			double current = getPotential(cells[r]);
+
+			for (int j = edgeStart[r]; j < edgeStart[r + 1]; j++) {
+				weights[j] = Math.exp(-alpha
+						* (getPotential(adj[edges[j]]) - current));
+			}
+		}
+
+	}
+
+	/**
+	 * returns the row of the cell, or -1 if it cannot send people along the
+	 * route
+	 */
+	int rowOf(int c) {
+
+		int r = Arrays.binarySearch(cells, c);
+
+		return r < 0 ? -1 : r;
+
+	}
+
+	/**
+	 * returns the static floor field of the route in the cell (-1 or 0 if the
+	 * cell is not on the route)
+	 */
+	public double getPotential(int c) {
+
+		int m = Arrays.binarySearch(members, c);
+
+		return m < 0 ? 0.0 : potentials[m];
+
+	}
+
+}
@@ -0,0 +1,435 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Compiled scenario: the layout, the demand and the static floor fields of a
+ * simulation, as they are after loadLayout(), loadDemand(), addMissing() and
+ * computePotentialFields(). It can be written to a binary file (bundle) and
+ * read back through a memory mapped file, which avoids parsing the text files
+ * and recomputing the fields at every run on the same scenario.
+ *
+ * The bundle starts with a magic number, a format version and the SHA-256
+ * hash of the content of the layout and demand files it was compiled from. A
+ * bundle whose version or hash does not match is stale and has to be
+ * rebuilt. All numbers are stored in big endian order, arrays are preceded
+ * by their length and strings are stored in UTF-8.
+ */
+public class ScenarioBundle {
+
+	private static final int Magic = 0x50435442; // "PCTB"
+
+	private static final int Version = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	byte[] hash;
+
+	// layout
+
+	int numberCells;
+	double deltaL;
+	double alpha;
+	double beta;
+	String[] sensorIds;
+
+	String[] cid;
+	String[] zone;
+	double[] shape;
+	double[] area;
+	double[] kc;
+	double[] delta;
+	float[] coordinates;
+	float[] bounds;
+
+	int[] neighborStart;
+	int[] neighbors;
+
+	// demand
+
+	int startingTime;
+	String[] routes;
+	int[] sources;
+	int[] sinks;
+	double[][] repartitions;
+
+	// static floor fields
+
+	int[] routeField;
+	RouteGraph[] fields;
+
+	/**
+	 * computes the hash of the content of the layout and demand files
+	 */
+	public static byte[] contentHash(File layout, File demand)
+			throws IOException {
+
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		byte[] buffer = new byte[1 << 16];
+
+		for (File f : new File[] { layout, demand }) {
+
+			InputStream in = new FileInputStream(f);
+
+			try {
+
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					digest.update(buffer, 0, n);
+				}
+
+			} finally {
+				in.close();
+			}
+
+			// separates the two files
+
+			digest.update((byte) 0);
+			digest.update(Long.toString(f.length()).getBytes(UTF8));
+		}
+
+		return digest.digest();
+
+	}
+
+	/**
+	 * returns true if the bundle exists, has the current version and was
+	 * compiled from files with the given hash
+	 */
+	public static boolean isUpToDate(File bundle, byte[] hash) {
+
+		if (!bundle.isFile()) {
+			return false;
+		}
+
+		try {
+
+			RandomAccessFile file = new RandomAccessFile(bundle, "r");
+
+			try {
+
+				if (file.length() < 12 || file.readInt() != Magic
+						|| file.readInt() != Version) {
+					return false;
+				}
+
+				byte[] h = new byte[file.readInt()];
+				file.readFully(h);
+
+				return Arrays.equals(h, hash);
+
+			} finally {
+				file.close();
+			}
+
+		} catch (IOException e) {
+			return false;
+		}
+
+	}
+
+	/**
+	 * writes the bundle. It is written to a temporary file in the same
+	 * directory, synced to the disk and then renamed atomically, so that a
+	 * run reading (or mapping) the previous bundle at the same time is not
+	 * affected, and a run that dies during the write does not leave a
+	 * truncated bundle.
+	 */
+	public void write(File f) throws IOException {
+
+		File tmp = File.createTempFile(f.getName() + ".", ".tmp", f
+				.getAbsoluteFile().getParentFile());
+
+		boolean written = false;
+
+		try {
+
+			FileOutputStream file = new FileOutputStream(tmp);
+
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(file, 1 << 16));
+
+			try {
+
+				writeContent(out);
+
+				out.flush();
+				file.getChannel().force(true);
+
+			} finally {
+				out.close();
+			}
+
+			Files.move(tmp.toPath(), f.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+
+			written = true;
+
+		} finally {
+
+			if (!written) {
+				tmp.delete();
+			}
+		}
+
+	}
+
+	private void writeContent(DataOutputStream out) throws IOException {
+
+		out.writeInt(Magic);
+		out.writeInt(Version);
+		writeBytes(out, hash);
+
+		// layout
+
+		out.writeInt(numberCells);
+		out.writeDouble(deltaL);
+		out.writeDouble(alpha);
+		out.writeDouble(beta);
+		writeStrings(out, sensorIds);
+
+		writeStrings(out, cid);
+		writeStrings(out, zone);
+		writeDoubles(out, shape);
+		writeDoubles(out, area);
+		writeDoubles(out, kc);
+		writeDoubles(out, delta);
+		writeFloats(out, coordinates);
+		writeFloats(out, bounds);
+
+		writeInts(out, neighborStart);
+		writeInts(out, neighbors);
+
+		// demand
+
+		out.writeInt(startingTime);
+		writeStrings(out, routes);
+		writeInts(out, sources);
+		writeInts(out, sinks);
+		for (double[] r : repartitions) {
+			writeDoubles(out, r);
+		}
+
+		// static floor fields
+
+		writeInts(out, routeField);
+		out.writeInt(fields.length);
+		for (RouteGraph g : fields) {
+			writeInts(out, g.members);
+			writeDoubles(out, g.potentials);
+			writeInts(out, g.cells);
+			writeInts(out, g.edgeStart);
+			writeInts(out, g.edges);
+		}
+
+	}
+
+	/**
+	 * reads a bundle through a memory mapped file
+	 *
+	 * @throws IOException
+	 *             - if the file cannot be read or is not a bundle of the
+	 *             current version
+	 */
+	public static ScenarioBundle read(File f) throws IOException {
+
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+
+		MappedByteBuffer in;
+
+		try {
+
+			FileChannel channel = file.getChannel();
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+		} finally {
+			file.close(); // the mapping stays valid
+		}
+
+		try {
+
+			if (in.getInt() != Magic) {
+				throw new IOException(f.getName() + " is not a scenario bundle");
+			}
+
+			if (in.getInt() != Version) {
+				throw new IOException(f.getName()
+						+ " was compiled with another version");
+			}
+
+			ScenarioBundle b = new ScenarioBundle();
+
+			b.hash = readBytes(in);
+
+			// layout
+
+			b.numberCells = in.getInt();
+			b.deltaL = in.getDouble();
+			b.alpha = in.getDouble();
+			b.beta = in.getDouble();
+			b.sensorIds = readStrings(in);
+
+			b.cid = readStrings(in);
+			b.zone = readStrings(in);
+			b.shape = readDoubles(in);
+			b.area = readDoubles(in);
+			b.kc = readDoubles(in);
+			b.delta = readDoubles(in);
+			b.coordinates = readFloats(in);
+			b.bounds = readFloats(in);
+
+			b.neighborStart = readInts(in);
+			b.neighbors = readInts(in);
+
+			// demand
+
+			b.startingTime = in.getInt();
+			b.routes = readStrings(in);
+			b.sources = readInts(in);
+			b.sinks = readInts(in);
+			b.repartitions = new double[b.routes.length][];
+			for (int i = 0; i < b.routes.length; i++) {
+				b.repartitions[i] = readDoubles(in);
+			}
+
+			// static floor fields
+
+			b.routeField = readInts(in);
+			b.fields = new RouteGraph[in.getInt()];
+			for (int i = 0; i < b.fields.length; i++) {
+				b.fields[i] = new RouteGraph(readInts(in), readDoubles(in),
+						readInts(in), readInts(in), readInts(in));
+			}
+
+			return b;
+
+		} catch (RuntimeException e) {
+			// truncated or corrupted file
+			throw new IOException(f.getName() + " is corrupted", e);
+		}
+
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] a)
+			throws IOException {
+
+		out.writeInt(a.length);
+		out.write(a);
+
+	}
+
+	private static void writeStrings(DataOutputStream out, String[] a)
+			throws IOException {
+
+		out.writeInt(a.length);
+		for (String s : a) {
+			writeBytes(out, s.getBytes(UTF8));
+		}
+
+	}
+
+	private static void writeInts(DataOutputStream out, int[] a)
+			throws IOException {
+
+		out.writeInt(a.length);
+		for (int x : a) {
+			out.writeInt(x);
+		}
+
+	}
+
+	private static void writeFloats(DataOutputStream out, float[] a)
+			throws IOException {
+
+		out.writeInt(a.length);
+		for (float x : a) {
+			out.writeFloat(x);
+		}
+
+	}
+
+	private static void writeDoubles(DataOutputStream out, double[] a)
+			throws IOException {
+
+		out.writeInt(a.length);
+		for (double x : a) {
+			out.writeDouble(x);
+		}
+
+	}
+
+	private static byte[] readBytes(ByteBuffer in) {
+
+		byte[] a = new byte[in.getInt()];
+		in.get(a);
+
+		return a;
+
+	}
+
+	private static String[] readStrings(ByteBuffer in) {
+
+		String[] a = new String[in.getInt()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = new String(readBytes(in), UTF8);
+		}
+
+		return a;
+
+	}
+
+	private static int[] readInts(ByteBuffer in) {
+
+		int[] a = new int[in.getInt()];
+		in.asIntBuffer().get(a);
+		in.position(in.position() + 4 * a.length);
+
+		return a;
+
+	}
+
+	private static float[] readFloats(ByteBuffer in) {
+
+		float[] a = new float[in.getInt()];
+		in.asFloatBuffer().get(a);
+		in.position(in.position() + 4 * a.length);
+
+		return a;
+
+	}
+
+	private static double[] readDoubles(ByteBuffer in) {
+
+		double[] a = new double[in.getInt()];
+		in.asDoubleBuffer().get(a);
+		in.position(in.position() + 8 * a.length);
+
+		return a;
+
+	}
+
+}
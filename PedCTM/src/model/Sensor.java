@@ -1,30 +1,50 @@
 package model;
 
+import java.io.IOException;
+import java.io.Writer;
+
 /**
- * sensor class used to print the file containing the arrival times at the
- * sensors.
- * 
+ * Log book of the arrivals at a sensor cell: number of people of each
+ * logical group (route and departure interval) arriving at each time step.
+ * The arrivals of the current time step are summed by group in an
+ * Occupancy; when the time step changes, they are appended to primitive
+ * arrays. The size of the log is thus bounded by the number of (route,
+ * departure interval, arrival time step) triples, and recording an arrival
+ * does not allocate.
+ *
+ * A sensor is only updated by the thread that updates its cell.
+ *
  * @author Thomas Muehlematter
- * 
+ *
  */
 public class Sensor {
 
-	private String id; // id of the sensor
-	private int departureTime;
-	private String route;
-	private int arrivalTime;
-	private double weight; // number of people
+	private final String id; // id of the sensor (id of the cell)
+
+	// closed time steps, in the order of the arrivals
+	private long[] keys; // logical group (see LogicalGroup.key)
+	private int[] arrivals; // arrival time step
+	private double[] weights; // number of people
+	private int size;
+
+	// current time step
+	private int timestep;
+	private final Occupancy current;
 
 	/**
-	 * constructor of the sensor-line
+	 * constructor of the sensor
 	 */
-	public Sensor(int d, String r, int a, double w) {
+	public Sensor(String id) {
+
+		this.id = id;
 
-		this.id = String.valueOf(d).concat(r.concat(String.valueOf(a)));
-		this.departureTime = d;
-		this.route = r;
-		this.arrivalTime = a;
-		this.weight = w;
+		this.keys = new long[16];
+		this.arrivals = new int[16];
+		this.weights = new double[16];
+		this.size = 0;
+
+		this.timestep = -1;
+		this.current = new Occupancy();
 
 	}
 
@@ -32,36 +52,97 @@ public class Sensor {
 		return id;
 	}
 
-	public String getRoute() {
-		return route;
-	}
+	/**
+	 * adds people of a logical group arriving at a time step. The time steps
+	 * must be given in increasing order.
+	 */
+	public void record(long key, int timestep, double weight) {
 
-	public int getDepartureTime() {
-		return departureTime;
-	}
+		if (timestep != this.timestep) {
+			closeTimestep();
+			this.timestep = timestep;
+		}
+
+		current.add(key, weight);
 
-	public int getArrivalTime() {
-		return arrivalTime;
 	}
 
-	public double getWeight() {
-		return weight;
+	/**
+	 * returns the number of (route, departure interval, arrival time step)
+	 * entries
+	 */
+	public int size() {
+
+		closeTimestep();
+
+		return size;
+
 	}
 
 	/**
-	 * gets the string representation that will be printed from the sensor
+	 * writes the entries, one per line: departure interval, route, arrival
+	 * time step and number of people
+	 *
+	 * @param routes
+	 *            - ids of the routes, by index
 	 */
-	public String getString() {
-		return String.valueOf(departureTime).concat(
-				"," + route + "," + String.valueOf(arrivalTime) + "," + weight
-						+ "\n");
+	public void write(Writer out, String[] routes) throws IOException {
+
+		closeTimestep();
+
+		for (int i = 0; i < size; i++) {
+
+			out.write(Integer.toString(LogicalGroup.interval(keys[i])));
+			out.write(',');
+			out.write(routes[LogicalGroup.route(keys[i])]);
+			out.write(',');
+			out.write(Integer.toString(arrivals[i]));
+			out.write(',');
+			out.write(Double.toString(weights[i]));
+			out.write('\n');
+
+		}
+
 	}
 
 	/**
-	 * adds a certain number of people to the existing line representation
+	 * appends the arrivals of the current time step to the entries
 	 */
-	public void addWeight(double w) {
-		this.weight += w;
+	private void closeTimestep() {
+
+		int n = current.size();
+
+		if (n == 0) {
+			return;
+		}
+
+		if (size + n > keys.length) {
+
+			int length = Math.max(2 * keys.length, size + n);
+
+			long[] k = new long[length];
+			int[] a = new int[length];
+			double[] w = new double[length];
+
+			System.arraycopy(keys, 0, k, 0, size);
+			System.arraycopy(arrivals, 0, a, 0, size);
+			System.arraycopy(weights, 0, w, 0, size);
+
+			keys = k;
+			arrivals = a;
+			weights = w;
+		}
+
+		for (int g = 0; g < n; g++) {
+
+			keys[size] = current.getKey(g);
+			arrivals[size] = timestep;
+			weights[size] = current.getPeople(g);
+			size++;
+
+		}
+
+		current.clear();
 
 	}
 
@@ -0,0 +1,255 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the space time output in a single binary file (spaceTime.sparse),
+ * read back by SparseOutputReader, which only contains the cells whose value
+ * is above a threshold. On large layouts, most cells are empty and each
+ * route is present in a few cells only, so the size of the file and the time
+ * to write it depend on the number of occupied cells and not on the number
+ * of routes times the number of cells.
+ *
+ * The file starts with a header: magic number, format version, threshold,
+ * length of the cells, duration of a time step, ids of the cells, ids of the
+ * routes and static floor field of each route in each cell. It is followed
+ * by one block per time step, which contains the number of values of each
+ * quantity (the number of people, then each route) and, for each quantity,
+ * the indices of the cells in increasing order followed by the values. The
+ * file is only appended to, the timesteps and the position of each block are
+ * stored in a footer when it is closed. The last 12 bytes are the position
+ * of the footer and the magic number.
+ *
+ * All numbers are stored in big endian order, arrays are preceded by their
+ * length and strings are stored in UTF-8.
+ */
+public class SparseOutput implements SparseOutputSink {
+
+	static final int Magic = 0x50435453; // "PCTS"
+
+	static final int Version = 1;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int BufferSize = 1 << 16;
+
+	private final File file;
+
+	private final double epsilon;
+
+	private DataOutputStream out;
+
+	private long position; // number of bytes written
+
+	private int[] timesteps;
+	private long[] blocks; // position of the block of each time step
+	private int numberSteps;
+
+	// values of the current time step above the threshold
+
+	private int[][] cells;
+	private double[][] values;
+	private int[] counts;
+
+	/**
+	 * @param directory
+	 *            - directory in which the file is written (e.g. "output/")
+	 * @param epsilon
+	 *            - values whose absolute value is not above it are not
+	 *            written
+	 */
+	public SparseOutput(String directory, double epsilon) {
+
+		this.file = new File(directory, "spaceTime.sparse");
+		this.epsilon = epsilon;
+
+	}
+
+	public void open(String[] cells, String[] routes, double deltaL,
+			double timeInterval, double[][] potentials) throws IOException {
+
+		file.getAbsoluteFile().getParentFile().mkdirs();
+
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), BufferSize));
+
+		timesteps = new int[256];
+		blocks = new long[256];
+		numberSteps = 0;
+
+		this.cells = new int[routes.length + 1][16];
+		this.values = new double[routes.length + 1][16];
+		this.counts = new int[routes.length + 1];
+
+		out.writeInt(Magic);
+		out.writeInt(Version);
+		out.writeDouble(epsilon);
+		out.writeDouble(deltaL);
+		out.writeDouble(timeInterval);
+
+		writeStrings(cells);
+		writeStrings(routes);
+
+		for (double[] p : potentials) {
+			out.writeInt(p.length);
+			for (double v : p) {
+				out.writeDouble(v);
+			}
+		}
+
+		position = out.size();
+
+	}
+
+	public void write(int timestep, double[] people, double[][] routePeople)
+			throws IOException {
+
+		for (int q = 0; q < counts.length; q++) {
+
+			double[] row = q == 0 ? people : routePeople[q - 1];
+
+			counts[q] = 0;
+
+			for (int c = 0; c < row.length; c++) {
+				add(q, c, row[c]);
+			}
+		}
+
+		writeBlock(timestep);
+
+	}
+
+	public void writeSparse(int timestep, double[] people, int[][] routeCells,
+			double[][] routeValues, int[] routeCounts) throws IOException {
+
+		counts[0] = 0;
+
+		for (int c = 0; c < people.length; c++) {
+			add(0, c, people[c]);
+		}
+
+		for (int q = 1; q < counts.length; q++) {
+
+			counts[q] = 0;
+
+			for (int k = 0; k < routeCounts[q - 1]; k++) {
+				add(q, routeCells[q - 1][k], routeValues[q - 1][k]);
+			}
+		}
+
+		writeBlock(timestep);
+
+	}
+
+	public void close() throws IOException {
+
+		if (out == null) {
+			return;
+		}
+
+		try {
+
+			long footer = position;
+
+			out.writeInt(numberSteps);
+			for (int i = 0; i < numberSteps; i++) {
+				out.writeInt(timesteps[i]);
+			}
+			for (int i = 0; i < numberSteps; i++) {
+				out.writeLong(blocks[i]);
+			}
+
+			out.writeLong(footer);
+			out.writeInt(Magic);
+
+		} finally {
+
+			out.close();
+
+			out = null;
+
+		}
+
+	}
+
+	/**
+	 * keeps the value of a quantity in a cell if it is above the threshold
+	 */
+	private void add(int q, int c, double v) {
+
+		if (Math.abs(v) <= epsilon) {
+			return;
+		}
+
+		int k = counts[q];
+
+		if (k == cells[q].length) {
+			int[] a = new int[2 * k];
+			System.arraycopy(cells[q], 0, a, 0, k);
+			cells[q] = a;
+			double[] b = new double[2 * k];
+			System.arraycopy(values[q], 0, b, 0, k);
+			values[q] = b;
+		}
+
+		cells[q][k] = c;
+		values[q][k] = v;
+		counts[q] = k + 1;
+
+	}
+
+	private void writeBlock(int timestep) throws IOException {
+
+		if (numberSteps == timesteps.length) {
+			int[] t = new int[2 * numberSteps];
+			System.arraycopy(timesteps, 0, t, 0, numberSteps);
+			timesteps = t;
+			long[] b = new long[2 * numberSteps];
+			System.arraycopy(blocks, 0, b, 0, numberSteps);
+			blocks = b;
+		}
+
+		timesteps[numberSteps] = timestep;
+		blocks[numberSteps] = position;
+		numberSteps++;
+
+		for (int n : counts) {
+			out.writeInt(n);
+		}
+
+		position += 4L * counts.length;
+
+		for (int q = 0; q < counts.length; q++) {
+
+			for (int k = 0; k < counts[q]; k++) {
+				out.writeInt(cells[q][k]);
+			}
+			for (int k = 0; k < counts[q]; k++) {
+				out.writeDouble(values[q][k]);
+			}
+
+			position += 12L * counts[q];
+		}
+
+	}
+
+	private void writeStrings(String[] a) throws IOException {
+
+		out.writeInt(a.length);
+
+		for (String s : a) {
+
+			byte[] b = s.getBytes(UTF8);
+
+			out.writeInt(b.length);
+			out.write(b);
+		}
+
+	}
+
+}
@@ -0,0 +1,322 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a space time output written by SparseOutput through memory mapped
+ * files. The position of the block of each time step is read from the footer
+ * when the file is opened, so that any time step of a quantity can be read
+ * directly, either as the list of the cells above the threshold or as a
+ * dense row.
+ *
+ * Quantity 0 is the number of people in each cell, quantity i + 1 is the
+ * number of people of route i.
+ */
+public class SparseOutputReader {
+
+	// maximal size of the mapped regions (a buffer is limited to 2 GB)
+	private static final long RegionSize = 1L << 30;
+
+	private final double epsilon;
+	private final double deltaL;
+	private final double timeInterval;
+
+	private final String[] cells;
+	private final String[] routes;
+	private final double[][] potentials;
+
+	private final int[] timesteps;
+	private final long[] blocks; // position of the block of each time step
+
+	private final int[] regionOf; // region of each time step
+	private final long[] regionStart;
+	private final MappedByteBuffer[] regions;
+
+	/**
+	 * opens an output file
+	 *
+	 * @throws IOException
+	 *             - if the file cannot be read or is not a complete output of
+	 *             the current version
+	 */
+	public SparseOutputReader(File f) throws IOException {
+
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+
+		try {
+
+			FileChannel channel = file.getChannel();
+
+			long size = channel.size();
+
+			if (size < 12) {
+				throw new IOException(f.getName() + " is not a sparse output");
+			}
+
+			// trailer
+
+			ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY,
+					size - 12, 12);
+
+			long footer = trailer.getLong();
+
+			if (trailer.getInt() != SparseOutput.Magic) {
+				throw new IOException(f.getName()
+						+ " is not a complete sparse output");
+			}
+
+			try {
+
+				// header
+
+				ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						Math.min(size, Integer.MAX_VALUE));
+
+				if (in.getInt() != SparseOutput.Magic) {
+					throw new IOException(f.getName()
+							+ " is not a sparse output");
+				}
+
+				if (in.getInt() != SparseOutput.Version) {
+					throw new IOException(f.getName()
+							+ " was written with another version");
+				}
+
+				epsilon = in.getDouble();
+				deltaL = in.getDouble();
+				timeInterval = in.getDouble();
+
+				cells = readStrings(in);
+				routes = readStrings(in);
+
+				potentials = new double[routes.length][];
+				for (int i = 0; i < routes.length; i++) {
+					potentials[i] = new double[in.getInt()];
+					in.asDoubleBuffer().get(potentials[i]);
+					in.position(in.position() + 8 * potentials[i].length);
+				}
+
+				// footer
+
+				in = channel.map(FileChannel.MapMode.READ_ONLY, footer, size
+						- 12 - footer);
+
+				timesteps = new int[in.getInt()];
+				in.asIntBuffer().get(timesteps);
+				in.position(in.position() + 4 * timesteps.length);
+
+				blocks = new long[timesteps.length];
+				in.asLongBuffer().get(blocks);
+
+				// blocks, in regions of consecutive time steps
+
+				regionOf = new int[timesteps.length];
+
+				long[] starts = new long[timesteps.length];
+				long[] ends = new long[timesteps.length];
+				int r = -1;
+
+				for (int t = 0; t < timesteps.length; t++) {
+
+					long end = t + 1 < timesteps.length ? blocks[t + 1]
+							: footer;
+
+					if (r < 0 || end - starts[r] > RegionSize) {
+						starts[++r] = blocks[t];
+					}
+
+					ends[r] = end;
+					regionOf[t] = r;
+				}
+
+				regionStart = Arrays.copyOf(starts, r + 1);
+				regions = new MappedByteBuffer[r + 1];
+
+				for (int i = 0; i <= r; i++) {
+					regions[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+							starts[i], ends[i] - starts[i]);
+				}
+
+			} catch (RuntimeException e) {
+				// truncated or corrupted file
+				throw new IOException(f.getName() + " is corrupted", e);
+			}
+
+		} finally {
+			file.close(); // the mappings stay valid
+		}
+
+	}
+
+	/**
+	 * returns the number of cells of a quantity above the threshold at a time
+	 * step
+	 *
+	 * @param quantity
+	 *            - 0 for the number of people, i + 1 for route i
+	 * @param step
+	 *            - index of the time step in getTimesteps()
+	 */
+	public int getCount(int quantity, int step) {
+
+		return regions[regionOf[step]].getInt(blockPosition(step) + 4
+				* quantity);
+
+	}
+
+	/**
+	 * reads the cells of a quantity above the threshold at a time step
+	 *
+	 * @param cellIndices
+	 *            - receives the indices of the cells, in increasing order (at
+	 *            least getCount() values)
+	 * @param values
+	 *            - receives the values in these cells (at least getCount()
+	 *            values)
+	 * @return number of cells
+	 */
+	public int readSparse(int quantity, int step, int[] cellIndices,
+			double[] values) {
+
+		ByteBuffer region = regions[regionOf[step]];
+
+		int p = blockPosition(step);
+
+		int n = region.getInt(p + 4 * quantity);
+
+		p = valuesPosition(region, p, quantity);
+
+		for (int k = 0; k < n; k++) {
+			cellIndices[k] = region.getInt(p + 4 * k);
+			values[k] = region.getDouble(p + 4 * n + 8 * k);
+		}
+
+		return n;
+
+	}
+
+	/**
+	 * reads the values of a quantity at a time step as a dense row, with 0.0
+	 * in the cells that are not above the threshold
+	 *
+	 * @param values
+	 *            - array of getCells().length values that receives the row
+	 */
+	public void readStep(int quantity, int step, double[] values) {
+
+		Arrays.fill(values, 0.0);
+
+		ByteBuffer region = regions[regionOf[step]];
+
+		int p = blockPosition(step);
+
+		int n = region.getInt(p + 4 * quantity);
+
+		p = valuesPosition(region, p, quantity);
+
+		for (int k = 0; k < n; k++) {
+			values[region.getInt(p + 4 * k)] = region.getDouble(p + 4 * n + 8
+					* k);
+		}
+
+	}
+
+	/**
+	 * position of the block of a time step in its region
+	 */
+	private int blockPosition(int step) {
+
+		return (int) (blocks[step] - regionStart[regionOf[step]]);
+
+	}
+
+	/**
+	 * position of the cells of a quantity in a block starting at p
+	 */
+	private int valuesPosition(ByteBuffer region, int p, int quantity) {
+
+		int q = p + 4 * (routes.length + 1);
+
+		for (int i = 0; i < quantity; i++) {
+			q += 12 * region.getInt(p + 4 * i);
+		}
+
+		return q;
+
+	}
+
+	/**
+	 * returns the index of a quantity ("people" or a route id), -1 if the
+	 * file does not contain it
+	 */
+	public int getQuantity(String name) {
+
+		if (name.equals("people")) {
+			return 0;
+		}
+
+		for (int i = 0; i < routes.length; i++) {
+			if (routes[i].equals(name)) {
+				return i + 1;
+			}
+		}
+
+		return -1;
+
+	}
+
+	public String[] getCells() {
+		return cells;
+	}
+
+	public String[] getRoutes() {
+		return routes;
+	}
+
+	public double[][] getPotentials() {
+		return potentials;
+	}
+
+	public int[] getTimesteps() {
+		return timesteps;
+	}
+
+	public double getEpsilon() {
+		return epsilon;
+	}
+
+	public double getDeltaL() {
+		return deltaL;
+	}
+
+	public double getTimeInterval() {
+		return timeInterval;
+	}
+
+	private static String readString(ByteBuffer in) {
+
+		byte[] b = new byte[in.getInt()];
+		in.get(b);
+
+		return new String(b, SparseOutput.UTF8);
+
+	}
+
+	private static String[] readStrings(ByteBuffer in) {
+
+		String[] a = new String[in.getInt()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = readString(in);
+		}
+
+		return a;
+
+	}
+
+}
@@ -0,0 +1,33 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Output sink that receives the number of people of each route only in the
+ * cells where the route is present. The board builds this sparse state
+ * instead of the time x cell matrix of each route, so that its cost depends
+ * on the number of occupied cells rather than on the number of routes times
+ * the number of cells.
+ */
+public interface SparseOutputSink extends OutputSink {
+
+	/**
+	 * writes the state at the end of a time step. The arrays are reused by
+	 * the board and must not be kept.
+	 *
+	 * @param people
+	 *            - number of people in each cell
+	 * @param routeCells
+	 *            - for each route, indices of the cells where it is present,
+	 *            in increasing order
+	 * @param routeValues
+	 *            - for each route, number of people of the route in these
+	 *            cells
+	 * @param counts
+	 *            - for each route, number of cells where it is present (the
+	 *            arrays can be longer)
+	 */
+	void writeSparse(int timestep, double[] people, int[][] routeCells,
+			double[][] routeValues, int[] counts) throws IOException;
+
+}
@@ -0,0 +1,178 @@
+package model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the space time output in text files: spaceTime.txt with the ids of
+ * the cells on the first line and the number of people in each cell at each
+ * time step on the following lines, and routes/[route].txt with the static
+ * floor field of the route on the first line and the number of people of the
+ * route in each cell at each time step on the following lines. Values are
+ * separated by spaces.
+ * 
+ * The lines are written at every time step through buffered writers. The
+ * files can be compressed with gzip (spaceTime.txt.gz, routes/[route].txt.gz).
+ */
+public class TextOutput implements OutputSink {
+
+	private static final int BufferSize = 1 << 16;
+
+	private static final String LineSeparator = System
+			.getProperty("line.separator");
+
+	private final File directory;
+
+	private final String extension; // ".txt" or ".txt.gz"
+
+	private Writer spaceTime;
+	private Writer[] routeFiles;
+
+	private final char[] digits = new char[24];
+
+	/**
+	 * @param directory
+	 *            - directory in which the files are written (e.g. "output/")
+	 */
+	public TextOutput(String directory) {
+
+		this(directory, false);
+
+	}
+
+	/**
+	 * @param directory
+	 *            - directory in which the files are written (e.g. "output/")
+	 * @param compressed
+	 *            - compresses the files with gzip
+	 */
+	public TextOutput(String directory, boolean compressed) {
+
+		this.directory = new File(directory);
+		this.extension = compressed ? ".txt.gz" : ".txt";
+
+	}
+
+	public void open(String[] cells, String[] routes, double deltaL,
+			double timeInterval, double[][] potentials) throws IOException {
+
+		File routeDirectory = new File(directory, "routes");
+
+		routeDirectory.mkdirs();
+
+		spaceTime = openFile(new File(directory, "spaceTime" + extension));
+
+		for (String cid : cells) {
+			spaceTime.write(cid);
+			spaceTime.write(' ');
+		}
+		spaceTime.write(LineSeparator);
+
+		routeFiles = new Writer[routes.length];
+
+		for (int i = 0; i < routes.length; i++) {
+
+			routeFiles[i] = openFile(new File(routeDirectory, routes[i]
+					+ extension));
+
+			writeLine(routeFiles[i], potentials[i]);
+		}
+
+	}
+
+	public void write(int timestep, double[] people, double[][] routePeople)
+			throws IOException {
+
+		writeLine(spaceTime, people);
+
+		for (int i = 0; i < routeFiles.length; i++) {
+			writeLine(routeFiles[i], routePeople[i]);
+		}
+
+	}
+
+	public void close() throws IOException {
+
+		if (spaceTime == null) {
+			return;
+		}
+
+		spaceTime.close();
+
+		for (Writer w : routeFiles) {
+			w.close();
+		}
+
+		spaceTime = null;
+
+	}
+
+	private Writer openFile(File f) throws IOException {
+
+		OutputStream out = new FileOutputStream(f);
+
+		if (extension.endsWith(".gz")) {
+			out = new GZIPOutputStream(out, BufferSize);
+		}
+
+		return new BufferedWriter(new OutputStreamWriter(out), BufferSize);
+
+	}
+
+	private void writeLine(Writer out, double[] values) throws IOException {
+
+		for (double v : values) {
+			writeDouble(out, v);
+			out.write(' ');
+		}
+
+		out.write(LineSeparator);
+
+	}
+
+	/**
+	 * writes a number in the same format as Double.toString(). Zero and the
+	 * integral values below 10^7, which are the most frequent values in the
+	 * output (empty cells and floor fields), are formatted directly.
+	 */
+	void writeDouble(Writer out, double v) throws IOException {
+
+		if (v == 0.0) {
+
+			out.write(1 / v < 0 ? "-0.0" : "0.0");
+
+		} else if (v == Math.rint(v) && Math.abs(v) < 1e7) {
+
+			long n = (long) Math.abs(v);
+
+			int i = digits.length;
+
+			digits[--i] = '0';
+			digits[--i] = '.';
+
+			do {
+				digits[--i] = (char) ('0' + n % 10);
+				n /= 10;
+			} while (n > 0);
+
+			if (v < 0) {
+				digits[--i] = '-';
+			}
+
+			out.write(digits, i, digits.length - i);
+
+		} else {
+
+			out.write(Double.toString(v));
+
+		}
+
+	}
+
+}
@@ -0,0 +1,227 @@
+package model;
+
+/**
+ * Travel times of the people of a route, for each departure interval: a
+ * histogram of the number of people by travel time (in time steps), and the
+ * mean and the variance of the travel time, which are updated at each
+ * arrival. Quantiles are read from the histogram.
+ */
+public class TravelTimes {
+
+	// histogram of each departure interval: people[interval][tt - first]
+	private double[][] people;
+	private int[] first; // smallest travel time of the histogram
+
+	// weighted statistics of each interval (West's incremental algorithm)
+	private double[] size; // number of people
+	private double[] sum; // sum of the travel times weighted by the people
+	private double[] mean;
+	private double[] squares; // sum of the weighted squared deviations
+
+	public TravelTimes() {
+
+		people = new double[4][];
+		first = new int[4];
+		size = new double[4];
+		sum = new double[4];
+		mean = new double[4];
+		squares = new double[4];
+
+	}
+
+	/**
+	 * adds n people of the departure interval arriving after tt time steps
+	 */
+	public void add(int interval, int tt, double n) {
+
+		if (interval >= people.length) {
+			grow(interval + 1);
+		}
+
+		// histogram
+
+		double[] h = people[interval];
+
+		if (h == null) {
+
+			h = new double[16];
+			people[interval] = h;
+			first[interval] = tt;
+
+		} else if (tt < first[interval]) {
+
+			int shift = first[interval] - tt;
+
+			double[] a = new double[h.length + shift];
+			System.arraycopy(h, 0, a, shift, h.length);
+			h = a;
+			people[interval] = h;
+			first[interval] = tt;
+
+		} else if (tt - first[interval] >= h.length) {
+
+			double[] a = new double[Math.max(2 * h.length, tt
+					- first[interval] + 1)];
+			System.arraycopy(h, 0, a, 0, h.length);
+			h = a;
+			people[interval] = h;
+
+		}
+
+		h[tt - first[interval]] += n;
+
+		// statistics
+
+		if (n <= 0.0) {
+			return;
+		}
+
+		size[interval] += n;
+		sum[interval] += n * tt;
+
+		double delta = tt - mean[interval];
+		double r = delta * n / size[interval];
+
+		mean[interval] += r;
+		squares[interval] += (size[interval] - n) * delta * r;
+
+	}
+
+	/**
+	 * returns the number of departure intervals (some of which can have no
+	 * arrival)
+	 */
+	public int getNumberIntervals() {
+
+		int n = people.length;
+
+		while (n > 0 && people[n - 1] == null) {
+			n--;
+		}
+
+		return n;
+
+	}
+
+	/**
+	 * returns true if people of the departure interval have arrived
+	 */
+	public boolean hasArrivals(int interval) {
+
+		return interval < people.length && size[interval] > 0.0;
+
+	}
+
+	/**
+	 * returns the number of people of the departure interval who have arrived
+	 */
+	public double getSize(int interval) {
+
+		return size[interval];
+
+	}
+
+	/**
+	 * returns the mean travel time of the departure interval
+	 */
+	public double getMean(int interval) {
+
+		return sum[interval] / size[interval];
+
+	}
+
+	/**
+	 * returns the variance of the travel time of the departure interval
+	 */
+	public double getVariance(int interval) {
+
+		return squares[interval] / size[interval];
+
+	}
+
+	/**
+	 * returns the smallest travel time such that at least a fraction q of the
+	 * people of the departure interval have a smaller or equal travel time
+	 */
+	public int getQuantile(int interval, double q) {
+
+		double[] h = people[interval];
+
+		double target = q * size[interval];
+		double cumulated = 0.0;
+
+		int last = 0;
+
+		for (int i = 0; i < h.length; i++) {
+
+			if (h[i] > 0.0) {
+
+				cumulated += h[i];
+				last = i;
+
+				if (cumulated >= target) {
+					break;
+				}
+			}
+		}
+
+		return first[interval] + last;
+
+	}
+
+	/**
+	 * returns the smallest travel time of the histogram of the departure
+	 * interval
+	 */
+	public int getFirst(int interval) {
+
+		return first[interval];
+
+	}
+
+	/**
+	 * returns the histogram of the departure interval: number of people with
+	 * a travel time of getFirst(interval) + i. The array can be longer than
+	 * the largest travel time and must not be modified.
+	 */
+	public double[] getHistogram(int interval) {
+
+		return people[interval];
+
+	}
+
+	private void grow(int n) {
+
+		int length = Math.max(n, 2 * people.length);
+
+		double[][] p = new double[length][];
+		System.arraycopy(people, 0, p, 0, people.length);
+		people = p;
+
+		first = copy(first, length);
+		size = copy(size, length);
+		sum = copy(sum, length);
+		mean = copy(mean, length);
+		squares = copy(squares, length);
+
+	}
+
+	private static int[] copy(int[] a, int length) {
+
+		int[] b = new int[length];
+		System.arraycopy(a, 0, b, 0, a.length);
+
+		return b;
+
+	}
+
+	private static double[] copy(double[] a, int length) {
+
+		double[] b = new double[length];
+		System.arraycopy(a, 0, b, 0, a.length);
+
+		return b;
+
+	}
+
+}
@@ -0,0 +1,66 @@
+package model;
+
+/**
+ * Scratch space of a thread during the projection. The turning proportions
+ * of a route in a cell only depend on the floor field of the route, so they
+ * are computed once per (cell, field) and reused by all the logical groups of
+ * the routes sharing the field present in the cell.
+ *
+ * Instead of clearing the cache for every cell, each visit of a cell gets a
+ * new stamp, and the proportions of a field are valid only if the field was
+ * computed with the current stamp.
+ */
+class TurningCache {
+
+	private final int[] stamp; // stamp at which each field was computed
+	private int current;
+
+	final int maxDegree;
+	final double[] proportions; // proportion of the k-th admissible edge of
+								// the cell for field f at f * maxDegree + k
+	final int[] rows; // row of the cell in the subgraph of field f, -1 if
+						// the cell cannot send people along it
+
+	TurningCache(int numberFields, int maxDegree) {
+
+		this.stamp = new int[numberFields];
+		this.current = 0;
+
+		this.maxDegree = maxDegree;
+		this.proportions = new double[numberFields * maxDegree];
+		this.rows = new int[numberFields];
+
+	}
+
+	/**
+	 * invalidates the proportions of all fields, called before a new cell is
+	 * projected
+	 */
+	void nextCell() {
+
+		current++;
+
+		if (current == Integer.MAX_VALUE) {
+			java.util.Arrays.fill(stamp, 0);
+			current = 1;
+		}
+
+	}
+
+	/**
+	 * returns true if the proportions of the field are valid for the current
+	 * cell, otherwise marks them as valid (the caller has to compute them)
+	 */
+	boolean isCached(int field) {
+
+		if (stamp[field] == current) {
+			return true;
+		}
+
+		stamp[field] = current;
+
+		return false;
+
+	}
+
+}
@@ -0,0 +1,12 @@
+package model;
+
+/**
+ * Runs the simulation at full speed, used for headless and batch runs.
+ */
+public class UnthrottledPacing implements Pacing {
+
+	public void pace(int timestep) {
+
+	}
+
+}
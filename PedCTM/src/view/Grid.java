@@ -31,6 +31,7 @@ public class Grid extends PApplet {
 	private boolean initialized;
 
 	private float[] bounds;
+	private boolean boundsLoaded; // false until the first frame is loaded
 
 	private int time;
 
@@ -42,6 +43,7 @@ public class Grid extends PApplet {
 		initialized = false;
 
 		bounds = new float[4];
+		boundsLoaded = false;
 
 		outputColors = new LinkedHashMap<Integer, ArrayList<float[]>>();
 
@@ -256,9 +258,12 @@ public class Grid extends PApplet {
 		coordinates = new ArrayList<float[]>();
 		coordinates.addAll(arrayList);
 
-		if (timestep == 0) {
+		// bounds of the layout, taken from the first frame of a simulation
+
+		if (timestep == 0 || !boundsLoaded) {
 
 			bounds = b.clone();
+			boundsLoaded = true;
 
 		}
 
@@ -8,8 +8,11 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -18,6 +21,7 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
@@ -25,7 +29,9 @@ import processing.core.*;
 
 import model.Board;
 import model.BoardThread;
+import model.FrameRatePacing;
 import model.Heatmap;
+import model.UnthrottledPacing;
 
 /**
  * Handles the interface and communicates with the board and the grid
@@ -42,6 +48,18 @@ public class View extends JFrame implements ActionListener, Observer {
 
 	private static final int windowHeight = 900;
 
+	/*
+	 * Number of time steps per second at speed 1x. The last speed runs the
+	 * simulation as fast as possible.
+	 */
+
+	private static final double BaseStepsPerSecond = 100;
+
+	private static final String[] SpeedLabels = { "0.1x", "0.5x", "1x", "2x",
+			"5x", "Max" };
+
+	private static final double[] SpeedMultipliers = { 0.1, 0.5, 1, 2, 5, 0 };
+
 	private JMenuBar menuBar = new JMenuBar();
 	private JMenu file = new JMenu("File");
 	private JMenu help = new JMenu("Help");
@@ -59,6 +77,8 @@ public class View extends JFrame implements ActionListener, Observer {
 	private JButton stop;
 	private JButton output;
 
+	private JComboBox<String> speed;
+
 	private JLabel timeLabel;
 
 	JPanel middle = new JPanel();
@@ -70,10 +90,19 @@ public class View extends JFrame implements ActionListener, Observer {
 
 	private BoardThread bthread;
 
+	private FrameRatePacing pacing;
+
 	private Heatmap heatmap;
 
 	private int timestep;
 
+	// frames computed by the simulation and not passed to the grid yet, and
+	// true if an update is queued on the event dispatch thread
+
+	private final ConcurrentLinkedQueue<Frame> pendingFrames =
+			new ConcurrentLinkedQueue<Frame>();
+	private final AtomicBoolean repaintPending = new AtomicBoolean(false);
+
 	/**
 	 * constructor of the view
 	 * 
@@ -89,10 +118,17 @@ public class View extends JFrame implements ActionListener, Observer {
 
 		board.addObserver(this);
 
+		// the interface only writes the pictures, not the space time output
+
+		board.setOutput(null);
+
 		this.heatmap = hm;
 
 		this.timestep = 0;
 
+		this.pacing = new FrameRatePacing(BaseStepsPerSecond);
+		board.setPacing(pacing);
+
 		this.setSize(windowWidth, windowHeight);
 		this.setTitle("Pedestrian Simulator");
 		this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -127,12 +163,17 @@ public class View extends JFrame implements ActionListener, Observer {
 		stop.setEnabled(false);
 		output.setEnabled(false);
 
+		speed = new JComboBox<String>(SpeedLabels);
+		speed.setSelectedIndex(2);
+
 		buttons = new JPanel();
 		buttons.setLayout(new FlowLayout(0));
 
 		buttons.add(start);
 		buttons.add(stop);
 		buttons.add(output);
+		buttons.add(new JLabel("Speed"));
+		buttons.add(speed);
 
 		grid = new Grid();
 
@@ -156,6 +197,7 @@ public class View extends JFrame implements ActionListener, Observer {
 		this.start.addActionListener(this);
 		this.stop.addActionListener(this);
 		this.output.addActionListener(this);
+		this.speed.addActionListener(this);
 
 		grid.init();
 
@@ -331,33 +373,118 @@ public class View extends JFrame implements ActionListener, Observer {
 			//board.writeSimulation();
 			((Grid) grid).writeSimulationmaps();
 
+		} else if (e.getSource() == speed) {
+
+			double multiplier = SpeedMultipliers[speed.getSelectedIndex()];
+
+			if (multiplier > 0) {
+
+				pacing.setSpeedMultiplier(multiplier);
+				board.setPacing(pacing);
+
+			} else {
+
+				board.setPacing(new UnthrottledPacing());
+
+			}
+
 		}
 	}
 
 	/**
-	 * updates the grid
+	 * called by the simulation thread after each time step. The grid is
+	 * updated later on the event dispatch thread, so that the simulation never
+	 * waits for the rendering. Every frame is passed to the grid, which keeps
+	 * all the time steps for the space time pictures, but if the simulation is
+	 * faster than the rendering, the frames are passed in batches and at most
+	 * one update of the screen is queued.
 	 */
 
 	@SuppressWarnings("unchecked")
 	public void update(Observable o, Object arg) {
 
-		((Grid) grid).loadGrid((ArrayList<float[]>) arg, board.getTimestep(),
-				board.getBounds(), false);
-
-		if (board.getEnd() == true) {
+		boolean end = board.getEnd();
 
-			this.stop.setEnabled(false);
-			this.output.setEnabled(true);
-			((Grid) grid).setInitialized(false);
+		if (end) {
 			board.setEnd(false);
+		}
+
+		pendingFrames.add(new Frame((ArrayList<float[]>) arg, board
+				.getTimestep(), end));
+
+		if (repaintPending.compareAndSet(false, true)) {
+
+			SwingUtilities.invokeLater(new Runnable() {
 
+				public void run() {
+
+					// cleared first, so that a frame added from now on queues
+					// a new update
+					repaintPending.set(false);
+
+					updateGrid();
+				}
+
+			});
+		}
+
+	}
+
+	/**
+	 * passes the pending frames to the grid in order and updates the screen
+	 * once, runs on the event dispatch thread
+	 */
+
+	private void updateGrid() {
+
+		Frame f;
+		Frame last = null;
+
+		while ((f = pendingFrames.poll()) != null) {
+
+			((Grid) grid).loadGrid(f.cells, f.timestep, board.getBounds(),
+					false);
+
+			if (f.end == true) {
+
+				this.stop.setEnabled(false);
+				this.output.setEnabled(true);
+				((Grid) grid).setInitialized(false);
+
+			}
+
+			last = f;
+		}
+
+		if (last == null) {
+			return;
 		}
 
-		this.timestep = board.getTimestep();
+		this.timestep = last.timestep;
 		this.timeLabel.setText("Timestep : " + timestep);
 
 		grid.validate();
 
 	}
 
+	/**
+	 * state of the board after a time step, passed to the event dispatch
+	 * thread
+	 */
+
+	private static class Frame {
+
+		final ArrayList<float[]> cells;
+		final int timestep;
+		final boolean end; // true if the simulation ended at this step
+
+		Frame(ArrayList<float[]> cells, int timestep, boolean end) {
+
+			this.cells = cells;
+			this.timestep = timestep;
+			this.end = end;
+
+		}
+	}
+
 }